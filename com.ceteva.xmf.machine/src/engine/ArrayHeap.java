@@ -0,0 +1,67 @@
+package engine;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+public final class ArrayHeap implements Heap {
+
+  // The default heap. The words are held in a Java int array...
+
+  private final int[] words;
+
+  public ArrayHeap(int size) {
+    this(new int[size]);
+  }
+
+  public ArrayHeap(int[] words) {
+    this.words = words;
+  }
+
+  public int size() {
+    return words.length;
+  }
+
+  public int get(int ptr) {
+    return words[ptr];
+  }
+
+  public void set(int ptr, int word) {
+    words[ptr] = word;
+  }
+
+  public void fill(int from, int to, int word) {
+    Arrays.fill(words, from, to, word);
+  }
+
+  public void copy(int from, Heap to, int ptr, int length) {
+    int[] array = to.array();
+    if (array != null)
+      System.arraycopy(words, from, array, ptr, length);
+    else to.write(words, from, ptr, length);
+  }
+
+  public void read(int from, int[] words, int index, int length) {
+    System.arraycopy(this.words, from, words, index, length);
+  }
+
+  public void write(int[] words, int index, int ptr, int length) {
+    System.arraycopy(words, index, this.words, ptr, length);
+  }
+
+  public void read(int from, IntBuffer words, int length) {
+    words.put(this.words, from, length);
+  }
+
+  public void write(IntBuffer words, int ptr, int length) {
+    words.get(this.words, ptr, length);
+  }
+
+  public Heap copyOf(int size) {
+    return new ArrayHeap(Arrays.copyOf(words, size));
+  }
+
+  public int[] array() {
+    return words;
+  }
+
+}
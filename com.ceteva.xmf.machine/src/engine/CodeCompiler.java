@@ -0,0 +1,839 @@
+package engine;
+
+/******************************************************************************
+ *                                                                            *
+ *                               Code Compiler                                *
+ *             ------------------------------------------------               *
+ *                                                                            *
+ *  Translates the decoded instructions of a code box into a JVM class that   *
+ *  extends CompiledCode. The perform method of the class starts with a       *
+ *  table switch on the code index and has a block of bytecode for each       *
+ *  instruction. Skips become JVM branches between the blocks. Instructions   *
+ *  that refer only to the stack and the current frame are translated in the  *
+ *  same way as they are in-lined by Machine.performInstrs. Any other         *
+ *  instruction, and any instruction that finds values that it cannot deal    *
+ *  with directly, returns its code index to the interpreter. The class file  *
+ *  is written directly (version 49 so that no stack map frames are needed)   *
+ *  and is defined by an XJLoader.                                            *
+ *                                                                            *
+ ******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import values.Value;
+import xjava.XJLoader;
+
+public class CodeCompiler implements Words, Value, Constants, StackFrame, Instr {
+
+  // JVM opcodes used by the compiler...
+
+  private static final int ICONST_0     = 0x03;
+  private static final int BIPUSH       = 0x10;
+  private static final int SIPUSH       = 0x11;
+  private static final int LDC_W        = 0x13;
+  private static final int ILOAD        = 0x15;
+  private static final int ALOAD        = 0x19;
+  private static final int ALOAD_0      = 0x2a;
+  private static final int IALOAD       = 0x2e;
+  private static final int ISTORE       = 0x36;
+  private static final int IASTORE      = 0x4f;
+  private static final int DUP          = 0x59;
+  private static final int SWAP         = 0x5f;
+  private static final int IADD         = 0x60;
+  private static final int ISUB         = 0x64;
+  private static final int INEG         = 0x74;
+  private static final int ISHR         = 0x7a;
+  private static final int IUSHR        = 0x7c;
+  private static final int IAND         = 0x7e;
+  private static final int IOR          = 0x80;
+  private static final int IINC         = 0x84;
+  private static final int IFEQ         = 0x99;
+  private static final int IFNE         = 0x9a;
+  private static final int IFLT         = 0x9b;
+  private static final int IF_ICMPEQ    = 0x9f;
+  private static final int IF_ICMPNE    = 0xa0;
+  private static final int IF_ICMPLT    = 0xa1;
+  private static final int IF_ICMPGE    = 0xa2;
+  private static final int IF_ICMPGT    = 0xa3;
+  private static final int IF_ICMPLE    = 0xa4;
+  private static final int GOTO         = 0xa7;
+  private static final int TABLESWITCH  = 0xaa;
+  private static final int IRETURN      = 0xac;
+  private static final int RETURN       = 0xb1;
+  private static final int GETSTATIC    = 0xb2;
+  private static final int GETFIELD     = 0xb4;
+  private static final int PUTFIELD     = 0xb5;
+  private static final int INVOKESPECIAL = 0xb7;
+
+  // The local variables of the perform method...
+
+  private static final int WORDS        = 1;
+  private static final int STACK        = 2;
+  private static final int FRAME        = 3;
+  private static final int PC           = 4;
+  private static final int SP           = 5;
+  private static final int PERFORMED    = 6;
+  private static final int CONSTANTS    = 7;
+  private static final int A            = 8;
+  private static final int B            = 9;
+
+  // Branch offsets are 16 bits...
+
+  private static final int MAXCODESIZE  = 0x7FFF;
+
+  private static final String SUPER     = "engine/CompiledCode";
+
+  private XJLoader                 loader = new XJLoader();
+
+  private int                      classes = 0;
+
+  // The state of the class being written...
+
+  private ByteArrayOutputStream    pool;
+  private int                      poolCount;
+  private Hashtable<String, Integer> poolIndex;
+  private ByteArrayOutputStream    code;
+  private Vector<int[]>            fixups;
+  private int[]                    labels;
+  private int                      labelCount;
+  private int[]                    instrLabels;
+  private int                      exitLabel;
+  private Hashtable<Integer, Integer> exits;
+  private Hashtable<Integer, Integer> bails;
+
+  public CompiledCode compile(int[] instrs) {
+
+    // Returns an instance of a new class that performs the instructions
+    // or null if the instructions cannot be compiled...
+
+    if (instrs.length == 0) return null;
+    try {
+      String name = "engine.Compiled" + classes++;
+      byte[] bytes = classFile(name.replace('.', '/'), instrs);
+      if (bytes == null) return null;
+      return (CompiledCode) loader.defineGeneratedClass(name, bytes).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+
+      // The class could not be defined (for example it failed to verify)
+      // so the code box is left to the interpreter...
+
+      System.err.println("CodeCompiler: " + e);
+      return null;
+    }
+  }
+
+  private byte[] classFile(String name, int[] instrs) {
+    pool = new ByteArrayOutputStream();
+    poolCount = 1;
+    poolIndex = new Hashtable<String, Integer>();
+    int thisClass = classRef(name);
+    int superClass = classRef(SUPER);
+    int init = methodRef(SUPER, "<init>", "()V");
+    int initName = utf8("<init>");
+    int initType = utf8("()V");
+    int performName = utf8("perform");
+    int performType = utf8("([I[IIII)I");
+    int codeName = utf8("Code");
+
+    // The constructor...
+
+    code = new ByteArrayOutputStream();
+    op(ALOAD_0);
+    op(INVOKESPECIAL);
+    u2(code, init);
+    op(RETURN);
+    byte[] initCode = code.toByteArray();
+
+    // perform(words,stack,frame,pc,sp)...
+
+    byte[] performCode = performCode(instrs);
+    if (performCode == null) return null;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    u4(out, 0xCAFEBABE);
+    u2(out, 0);
+    u2(out, 49);
+    u2(out, poolCount);
+    out.write(pool.toByteArray(), 0, pool.size());
+    u2(out, 0x0031); // public final super
+    u2(out, thisClass);
+    u2(out, superClass);
+    u2(out, 0);
+    u2(out, 0);
+    u2(out, 2);
+    method(out, 0x0001, initName, initType, codeName, 1, 1, initCode);
+    method(out, 0x0001, performName, performType, codeName, 8, 10, performCode);
+    u2(out, 0);
+    return out.toByteArray();
+  }
+
+  private void method(ByteArrayOutputStream out, int access, int name, int type, int codeName, int maxStack, int maxLocals, byte[] bytes) {
+    u2(out, access);
+    u2(out, name);
+    u2(out, type);
+    u2(out, 1);
+    u2(out, codeName);
+    u4(out, bytes.length + 12);
+    u2(out, maxStack);
+    u2(out, maxLocals);
+    u4(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+    u2(out, 0);
+    u2(out, 0);
+  }
+
+  private byte[] performCode(int[] instrs) {
+    code = new ByteArrayOutputStream();
+    fixups = new Vector<int[]>();
+    labels = new int[16];
+    labelCount = 0;
+    exits = new Hashtable<Integer, Integer>();
+    bails = new Hashtable<Integer, Integer>();
+    int n = instrs.length;
+    instrLabels = new int[n];
+    for (int i = 0; i < n; i++)
+      instrLabels[i] = newLabel();
+    exitLabel = newLabel();
+
+    // performed = 0; constants = ptr(words[ptr(stack[frame + FRAMECODEBOX]) + 1]) + 3...
+
+    pushInt(0);
+    store(PERFORMED);
+    op(ALOAD);
+    u1(WORDS);
+    frameRef(FRAMECODEBOX);
+    decodePtr();
+    pushInt(1);
+    op(IADD);
+    op(IALOAD);
+    decodePtr();
+    pushInt(3);
+    op(IADD);
+    store(CONSTANTS);
+
+    // Dispatch on the code index...
+
+    load(PC);
+    int switchAt = code.size();
+    op(TABLESWITCH);
+    while (code.size() % 4 != 0)
+      u1(0);
+    fixup(switchAt, exitLabel, 4);
+    u4(code, 0);
+    u4(code, 0);
+    u4(code, n - 1);
+    for (int i = 0; i < n; i++) {
+      fixup(switchAt, instrLabels[i], 4);
+      u4(code, 0);
+    }
+
+    for (int i = 0; i < n; i++) {
+      setLabel(instrLabels[i]);
+      instr(instrs, i);
+    }
+    exitAt(n);
+
+    for (Integer index : bails.keySet()) {
+      setLabel(bails.get(index));
+      op(IINC);
+      u1(PERFORMED);
+      u1(-1);
+      exitAt(index);
+    }
+    for (Integer index : exits.keySet()) {
+      setLabel(exits.get(index));
+      exitAt(index);
+    }
+
+    // Return the code index to the interpreter...
+
+    setLabel(exitLabel);
+    op(ALOAD_0);
+    load(SP);
+    op(PUTFIELD);
+    u2(code, fieldRef(SUPER, "sp", "I"));
+    op(ALOAD_0);
+    load(PERFORMED);
+    op(PUTFIELD);
+    u2(code, fieldRef(SUPER, "performed", "I"));
+    load(PC);
+    op(IRETURN);
+
+    byte[] bytes = code.toByteArray();
+    if (bytes.length > MAXCODESIZE) return null;
+    for (int[] f : fixups) {
+      int offset = labels[f[2]] - f[0];
+      if (f[3] == 2) {
+        bytes[f[1]] = (byte) (offset >> 8);
+        bytes[f[1] + 1] = (byte) offset;
+      } else {
+        bytes[f[1]] = (byte) (offset >> 24);
+        bytes[f[1] + 1] = (byte) (offset >> 16);
+        bytes[f[1] + 2] = (byte) (offset >> 8);
+        bytes[f[1] + 3] = (byte) offset;
+      }
+    }
+    return bytes;
+  }
+
+  private void instr(int[] instrs, int i) {
+
+    // Translate the instruction at index i. The translations follow
+    // the in-lined instructions in Machine.performInstrs...
+
+    int instr = instrs[i];
+    int operand = instr & DATA;
+    int bail = -1;
+    switch (instr >>> 24) {
+      case PUSHINT:
+        counted();
+        push();
+        pushInt(INT_MASK | operand);
+        op(IASTORE);
+        break;
+      case PUSHTRUE:
+        counted();
+        pushValue(trueValue);
+        break;
+      case PUSHFALSE:
+        counted();
+        pushValue(falseValue);
+        break;
+      case NULL:
+        counted();
+        pushValue(undefinedValue);
+        break;
+      case PUSHSTR:
+      case CONST:
+        counted();
+        push();
+        op(ALOAD);
+        u1(WORDS);
+        load(CONSTANTS);
+        pushInt(operand);
+        op(IADD);
+        op(IALOAD);
+        op(IASTORE);
+        break;
+      case LOCAL:
+        counted();
+        push();
+        frameRef(FRAMELOCAL0 + operand);
+        op(IASTORE);
+        break;
+      case SELF:
+        counted();
+        push();
+        frameRef(FRAMESELF);
+        op(IASTORE);
+        break;
+      case LOCALREFPOS:
+        counted();
+        push();
+        frameRef(FRAMELOCAL0 + ((instr >> 16) & 0xFF));
+        op(IASTORE);
+        frameAddr(FRAMELINECOUNT);
+        pushInt(INT_MASK | (instr & 0xFFFF));
+        op(IASTORE);
+        frameAddr(FRAMECHARCOUNT);
+        pushInt(INT_MASK);
+        op(IASTORE);
+        break;
+      case SETLOC:
+        counted();
+        frameAddr(FRAMELOCAL0 + operand);
+        top(1);
+        op(IASTORE);
+        break;
+      case SETLOCPOP:
+        counted();
+        frameAddr(FRAMELOCAL0 + operand);
+        inc(SP, -1);
+        top(0);
+        op(IASTORE);
+        break;
+      case POP:
+        counted();
+        inc(SP, -1);
+        break;
+      case NOOP:
+      case SOURCEPOS:
+        counted();
+        break;
+      case SKP:
+        counted();
+        jump(GOTO, i + 1 + operand);
+        break;
+      case SKPF:
+        counted();
+        bail = bail(i);
+        top(1);
+        store(A);
+        int notFalse = newLabel();
+        load(A);
+        pushInt(falseValue);
+        branch(IF_ICMPNE, notFalse);
+        inc(SP, -1);
+        jump(GOTO, i + 1 + operand);
+        setLabel(notFalse);
+        load(A);
+        pushInt(trueValue);
+        branch(IF_ICMPNE, bail);
+        inc(SP, -1);
+        break;
+      case SKPBACK:
+        // Leave compiled code when there is an interrupt or when the
+        // budget has been performed...
+        counted();
+        int leave = newLabel();
+        int go = newLabel();
+        op(GETSTATIC);
+        u2(code, fieldRef("engine/Machine", "interrupt", "Z"));
+        branch(IFNE, leave);
+        load(PERFORMED);
+        op(ALOAD_0);
+        op(GETFIELD);
+        u2(code, fieldRef(SUPER, "budget", "I"));
+        branch(IF_ICMPLT, go);
+        setLabel(leave);
+        exitAt(i - operand);
+        setLabel(go);
+        jump(GOTO, i - operand);
+        break;
+      case LOCALHEAD:
+      case LOCALTAIL:
+        counted();
+        bail = bail(i);
+        frameRef(FRAMELOCAL0 + operand);
+        store(A);
+        tagIs(A, CONS, bail);
+        push();
+        op(ALOAD);
+        u1(WORDS);
+        load(A);
+        decodePtr();
+        if ((instr >>> 24) == LOCALTAIL) {
+          pushInt(1);
+          op(IADD);
+        }
+        op(IALOAD);
+        op(IASTORE);
+        break;
+      case LOCALISEMPTY:
+        counted();
+        bail = bail(i);
+        frameRef(FRAMELOCAL0 + operand);
+        store(A);
+        int notNil = newLabel();
+        int done = newLabel();
+        load(A);
+        pushInt(nilValue);
+        branch(IF_ICMPNE, notNil);
+        pushValue(trueValue);
+        branch(GOTO, done);
+        setLabel(notNil);
+        tagIs(A, CONS, bail);
+        pushValue(falseValue);
+        setLabel(done);
+        break;
+      case INCLOCAL:
+        counted();
+        bail = bail(i);
+        frameRef(FRAMELOCAL0 + operand);
+        store(A);
+        tagIs(A, INT, bail);
+        load(A);
+        pushInt(DATA);
+        op(IAND);
+        pushInt(MAXINT);
+        branch(IF_ICMPEQ, bail);
+        inc(A, 1);
+        frameAddr(FRAMELOCAL0 + operand);
+        load(A);
+        op(IASTORE);
+        push();
+        load(A);
+        op(IASTORE);
+        break;
+      case ADD:
+      case SUB:
+        counted();
+        bail = bail(i);
+        binaryInts(bail);
+        load(A);
+        load(B);
+        op((instr >>> 24) == ADD ? IADD : ISUB);
+        store(A);
+        checkRange(A, bail);
+        inc(SP, -1);
+        topAddr(1);
+        encodeInt(A);
+        op(IASTORE);
+        break;
+      case LESS:
+      case GRE:
+      case EQL:
+        counted();
+        bail = bail(i);
+        binaryInts(bail);
+        inc(SP, -1);
+        topAddr(1);
+        int isFalse = newLabel();
+        int compared = newLabel();
+        load(A);
+        load(B);
+        branch((instr >>> 24) == LESS ? IF_ICMPGE : (instr >>> 24) == GRE ? IF_ICMPLE : IF_ICMPNE, isFalse);
+        pushInt(trueValue);
+        branch(GOTO, compared);
+        setLabel(isFalse);
+        pushInt(falseValue);
+        setLabel(compared);
+        op(IASTORE);
+        break;
+      case PUSHINTADD:
+      case PUSHINTSUB:
+        counted();
+        bail = bail(i);
+        top(1);
+        store(A);
+        decodeInt(A, bail);
+        load(A);
+        pushInt(operand);
+        op((instr >>> 24) == PUSHINTADD ? IADD : ISUB);
+        store(A);
+        checkRange(A, bail);
+        topAddr(1);
+        encodeInt(A);
+        op(IASTORE);
+        jump(GOTO, i + 2);
+        break;
+      case EQLSKPF:
+      case LESSSKPF:
+      case GRESKPF:
+        counted();
+        bail = bail(i);
+        binaryInts(bail);
+        inc(SP, -2);
+        load(A);
+        load(B);
+        jump((instr >>> 24) == LESSSKPF ? IF_ICMPGE : (instr >>> 24) == GRESKPF ? IF_ICMPLE : IF_ICMPNE, i + 2 + operand);
+        jump(GOTO, i + 2);
+        break;
+      default:
+        // Performed by the interpreter...
+        exitAt(i);
+    }
+  }
+
+  private void counted() {
+    inc(PERFORMED, 1);
+  }
+
+  private int bail(int index) {
+
+    // A label that leaves the compiled code so that the interpreter
+    // performs the instruction at index...
+
+    Integer label = bails.get(index);
+    if (label == null) {
+      label = newLabel();
+      bails.put(index, label);
+    }
+    return label;
+  }
+
+  private void exitAt(int index) {
+    pushInt(index);
+    store(PC);
+    branch(GOTO, exitLabel);
+  }
+
+  private void jump(int opcode, int index) {
+
+    // Branch to the instruction at index. Indices outside the code box
+    // leave the compiled code...
+
+    if (index >= 0 && index < instrLabels.length)
+      branch(opcode, instrLabels[index]);
+    else {
+      Integer label = exits.get(index);
+      if (label == null) {
+        label = newLabel();
+        exits.put(index, label);
+      }
+      branch(opcode, label);
+    }
+  }
+
+  private void binaryInts(int bail) {
+
+    // A = stack[sp - 2], B = stack[sp - 1] as Java ints...
+
+    top(2);
+    store(A);
+    top(1);
+    store(B);
+    decodeInt(A, bail);
+    decodeInt(B, bail);
+  }
+
+  private void decodeInt(int local, int bail) {
+    int negative = newLabel();
+    int done = newLabel();
+    load(local);
+    pushInt(24);
+    op(ISHR);
+    pushInt(INT);
+    branch(IF_ICMPNE, negative);
+    load(local);
+    pushInt(DATA);
+    op(IAND);
+    store(local);
+    branch(GOTO, done);
+    setLabel(negative);
+    tagIs(local, NEGINT, bail);
+    load(local);
+    pushInt(DATA);
+    op(IAND);
+    op(INEG);
+    store(local);
+    setLabel(done);
+  }
+
+  private void checkRange(int local, int bail) {
+    load(local);
+    pushInt(MAXINT);
+    branch(IF_ICMPGT, bail);
+    load(local);
+    pushInt(-MAXINT);
+    branch(IF_ICMPLT, bail);
+  }
+
+  private void encodeInt(int local) {
+    int negative = newLabel();
+    int done = newLabel();
+    load(local);
+    branch(IFLT, negative);
+    pushInt(INT_MASK);
+    load(local);
+    op(IOR);
+    branch(GOTO, done);
+    setLabel(negative);
+    pushInt(NEGINT_MASK);
+    load(local);
+    op(INEG);
+    op(IOR);
+    setLabel(done);
+  }
+
+  private void tagIs(int local, int tag, int bail) {
+    load(local);
+    pushInt(24);
+    op(ISHR);
+    pushInt(TAG >>> 24);
+    op(IAND);
+    pushInt(tag);
+    branch(IF_ICMPNE, bail);
+  }
+
+  private void decodePtr() {
+
+    // Replace the word on the top of the JVM stack with its heap
+    // address (see Machine.ptr)...
+
+    op(DUP);
+    pushInt(PTR);
+    op(IAND);
+    op(SWAP);
+    pushInt(SEGMENTSHIFT);
+    op(IUSHR);
+    pushInt(SEGMENTPTR);
+    op(IAND);
+    op(IOR);
+  }
+
+  private void pushValue(int value) {
+    push();
+    pushInt(value);
+    op(IASTORE);
+  }
+
+  private void push() {
+
+    // Leaves stack, sp on the JVM stack and increments sp...
+
+    op(ALOAD);
+    u1(STACK);
+    load(SP);
+    inc(SP, 1);
+  }
+
+  private void top(int depth) {
+
+    // Leaves stack[sp - depth] on the JVM stack...
+
+    topAddr(depth);
+    op(IALOAD);
+  }
+
+  private void topAddr(int depth) {
+    op(ALOAD);
+    u1(STACK);
+    load(SP);
+    if (depth != 0) {
+      pushInt(depth);
+      op(ISUB);
+    }
+  }
+
+  private void frameRef(int offset) {
+    frameAddr(offset);
+    op(IALOAD);
+  }
+
+  private void frameAddr(int offset) {
+    op(ALOAD);
+    u1(STACK);
+    load(FRAME);
+    pushInt(offset);
+    op(IADD);
+  }
+
+  private void load(int local) {
+    op(ILOAD);
+    u1(local);
+  }
+
+  private void store(int local) {
+    op(ISTORE);
+    u1(local);
+  }
+
+  private void inc(int local, int by) {
+    op(IINC);
+    u1(local);
+    u1(by);
+  }
+
+  private void pushInt(int value) {
+    if (value >= -1 && value <= 5)
+      op(ICONST_0 + value);
+    else if (value >= -128 && value <= 127) {
+      op(BIPUSH);
+      u1(value);
+    } else if (value >= -32768 && value <= 32767) {
+      op(SIPUSH);
+      u2(code, value);
+    } else {
+      op(LDC_W);
+      u2(code, integer(value));
+    }
+  }
+
+  private int newLabel() {
+    if (labelCount == labels.length) {
+      int[] newLabels = new int[labels.length * 2];
+      System.arraycopy(labels, 0, newLabels, 0, labels.length);
+      labels = newLabels;
+    }
+    labels[labelCount] = -1;
+    return labelCount++;
+  }
+
+  private void setLabel(int label) {
+    labels[label] = code.size();
+  }
+
+  private void branch(int opcode, int label) {
+    int at = code.size();
+    op(opcode);
+    fixup(at, label, 2);
+    u2(code, 0);
+  }
+
+  private void fixup(int from, int label, int width) {
+    fixups.addElement(new int[] { from, code.size(), label, width });
+  }
+
+  private void op(int opcode) {
+    code.write(opcode);
+  }
+
+  private void u1(int b) {
+    code.write(b);
+  }
+
+  private static void u2(ByteArrayOutputStream out, int s) {
+    out.write(s >> 8);
+    out.write(s);
+  }
+
+  private static void u4(ByteArrayOutputStream out, int i) {
+    out.write(i >> 24);
+    out.write(i >> 16);
+    out.write(i >> 8);
+    out.write(i);
+  }
+
+  // The constant pool...
+
+  private int constant(String key, byte[] entry) {
+    Integer index = poolIndex.get(key);
+    if (index == null) {
+      index = poolCount++;
+      poolIndex.put(key, index);
+      pool.write(entry, 0, entry.length);
+    }
+    return index;
+  }
+
+  private int utf8(String s) {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    entry.write(1);
+    u2(entry, s.length());
+    for (int i = 0; i < s.length(); i++)
+      entry.write(s.charAt(i));
+    return constant("U" + s, entry.toByteArray());
+  }
+
+  private int integer(int value) {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    entry.write(3);
+    u4(entry, value);
+    return constant("I" + value, entry.toByteArray());
+  }
+
+  private int classRef(String name) {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    entry.write(7);
+    u2(entry, utf8(name));
+    return constant("C" + name, entry.toByteArray());
+  }
+
+  private int nameAndType(String name, String type) {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    entry.write(12);
+    u2(entry, utf8(name));
+    u2(entry, utf8(type));
+    return constant("N" + name + ":" + type, entry.toByteArray());
+  }
+
+  private int fieldRef(String owner, String name, String type) {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    entry.write(9);
+    u2(entry, classRef(owner));
+    u2(entry, nameAndType(name, type));
+    return constant("F" + owner + "." + name, entry.toByteArray());
+  }
+
+  private int methodRef(String owner, String name, String type) {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    entry.write(10);
+    u2(entry, classRef(owner));
+    u2(entry, nameAndType(name, type));
+    return constant("M" + owner + "." + name + type, entry.toByteArray());
+  }
+
+}
@@ -0,0 +1,40 @@
+package engine;
+
+/******************************************************************************
+ *                                                                            *
+ *                               Compiled Code                                *
+ *             ------------------------------------------------               *
+ *                                                                            *
+ *  Code boxes that are entered often are compiled to JVM classes by the      *
+ *  CodeCompiler. Each class extends CompiledCode and performs instructions   *
+ *  of the code box for the current stack frame, starting at the supplied     *
+ *  code index, until it reaches an instruction that it cannot perform.      *
+ *  Compiled code only performs instructions that refer to the stack and the  *
+ *  current frame. Everything else (calls, returns, message sends, slot       *
+ *  access, allocation and so on) is left to the interpreter. Compiled code   *
+ *  therefore never runs across a change to the heap, the classes or the      *
+ *  code boxes and does not need to be invalidated when they change.          *
+ *                                                                            *
+ ******************************************************************************/
+
+public abstract class CompiledCode {
+
+  // The stack index after perform returns...
+
+  public int sp;
+
+  // The number of instructions performed by the last call of perform...
+
+  public int performed;
+
+  // The number of instructions that perform may complete before it leaves
+  // at a backward skip so that the thread can be preempted...
+
+  public int budget;
+
+  // Perform instructions from the code index pc. Returns the code index
+  // of the next instruction which must be performed by the interpreter...
+
+  public abstract int perform(int[] words, int[] stack, int frame, int pc, int sp);
+
+}
@@ -23,6 +23,90 @@ public interface Constants {
 
 	public final static int STACKSIZE = 50 * K;
 
+	// The default maximum load of an open addressing table as a
+	// percentage of its capacity (can be overridden by a command
+	// line arg)...
+
+	public final static int TABLELOAD = 75;
+
+	// Message send inline caches. The cache has SENDCACHELINES lines
+	// (a power of 2) and a SEND instruction is hashed to a single line.
+	// A line records the instruction address, the epoch, the message and
+	// the arity followed by SENDCACHEWAYS classifier and operations
+	// pairs...
+
+	public final static int SENDCACHEBITS = 12;
+
+	public final static int SENDCACHELINES = 1 << SENDCACHEBITS;
+
+	public final static int SENDCACHEWAYS = 4;
+
+	public final static int SENDCACHELINE = 4 + (SENDCACHEWAYS * 2);
+
+	// Slot access inline caches. A DOT or SETSLOT instruction is hashed
+	// to a single line of SLOTCACHELINES that records the instruction
+	// address, the epoch, the class, the slot name, the position of
+	// the slot in the attributes of the instances of the class and the
+	// last object and its attribute...
+
+	public final static int SLOTCACHEBITS = 12;
+
+	public final static int SLOTCACHELINES = 1 << SLOTCACHEBITS;
+
+	public final static int SLOTCACHELINE = 7;
+
+	// The decoded instructions of code boxes are cached in DECODECACHELINES
+	// lines (a power of 2) and a code box is hashed to a single line...
+
+	public final static int DECODECACHEBITS = 10;
+
+	public final static int DECODECACHELINES = 1 << DECODECACHEBITS;
+
+	// When compiled code is checked against the interpreter the decoded
+	// code is invalidated after this many checks...
+
+	public final static int JITCHECKINVALIDATE = 1000;
+
+	// The default size of the young generation as a fraction of the
+	// heap (the size can be set by a command line arg)...
+
+	public final static int NURSERYFRACTION = 8;
+
+	// The old generation is divided into cards of 1 << CARDBITS words.
+	// Updating a word marks its card so that a minor collection only
+	// scans marked cards for pointers into the young generation...
+
+	public final static int CARDBITS = 7;
+
+	// The heap is cleared this many words ahead of allocation...
+
+	public final static int CLEARCHUNK = 4 * K;
+
+	// The forwarding addresses recorded by an incremental collection
+	// have the epoch of the collection in the top bits and a bit that
+	// marks raw data above the address...
+
+	public final static int REPLICAEPOCHSHIFT = 27;
+
+	public final static int REPLICAEPOCHS = 31;
+
+	public final static int REPLICARAW = Words.MAXHEAP;
+
+	public final static int REPLICAPTR = Words.MAXHEAP - 1;
+
+	// Heaps of at least PARALLELGCHEAP words are collected by up to
+	// MAXGCTHREADS threads unless the number of threads is set by a
+	// command line arg. Each thread allocates GCTLABSIZE words of the GC
+	// heap at a time and scans at most GCSCANCHUNK words at a time...
+
+	public final static int PARALLELGCHEAP = 8 * K * K;
+
+	public final static int MAXGCTHREADS = 8;
+
+	public final static int GCTLABSIZE = 2 * K;
+
+	public final static int GCSCANCHUNK = 2 * K;
+
 	// The boolean value true...
 
 	public static final int trueValue = Machine.mkBool(1);
@@ -39,8 +123,28 @@ public interface Constants {
 
 	public static final int undefinedValue = Machine.mkUndefined();
 
+	// Key slots in open addressing tables that have never been used
+	// and key slots whose key has been removed...
+
+	public static final int emptyKeyValue = Machine.mkImmediate(Machine.OPENTABLE, 0);
+
+	public static final int deletedKeyValue = Machine.mkImmediate(Machine.OPENTABLE, 1);
+
 	// The largest integer...
 
 	public static final int MAXINT = 0xFFFFFF;
 
+	// Strings are hashed using 32 bit FNV-1a...
+
+	public static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+
+	public static final int FNV_PRIME = 0x01000193;
+
+	// Images record the string hash function used to build their
+	// tables so that tables can be rehashed when the function changes...
+
+	public static final String STRING_HASH_PROPERTY = "StringHash";
+
+	public static final String STRING_HASH = "FNV-1a";
+
 }
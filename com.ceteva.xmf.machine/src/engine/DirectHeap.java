@@ -0,0 +1,86 @@
+package engine;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+public final class DirectHeap implements Heap {
+
+  // A heap held in a direct byte buffer outside of the Java heap. The
+  // JVM collector does not scan or copy the words and the heap can be
+  // larger than -Xmx allows (direct buffers are limited by the JVM
+  // option -XX:MaxDirectMemorySize). The buffer is released when the
+  // heap is no longer referenced...
+
+  private final IntBuffer words;
+
+  private final int       size;
+
+  public DirectHeap(int size) {
+    this.size = size;
+    words = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int get(int ptr) {
+    return words.get(ptr);
+  }
+
+  public void set(int ptr, int word) {
+    words.put(ptr, word);
+  }
+
+  public void fill(int from, int to, int word) {
+    for (int ptr = from; ptr < to; ptr++)
+      words.put(ptr, word);
+  }
+
+  public void copy(int from, Heap to, int ptr, int length) {
+    for (int i = 0; i < length; i++)
+      to.set(ptr + i, words.get(from + i));
+  }
+
+  public void read(int from, int[] words, int index, int length) {
+    for (int i = 0; i < length; i++)
+      words[index + i] = this.words.get(from + i);
+  }
+
+  public void write(int[] words, int index, int ptr, int length) {
+    for (int i = 0; i < length; i++)
+      this.words.put(ptr + i, words[index + i]);
+  }
+
+  public void read(int from, IntBuffer words, int length) {
+    words.put(range(this.words.duplicate(), from, length));
+  }
+
+  public void write(IntBuffer words, int ptr, int length) {
+    range(this.words.duplicate(), ptr, length).put(range(words.duplicate(), ((Buffer) words).position(), length));
+    ((Buffer) words).position(((Buffer) words).position() + length);
+  }
+
+  private static IntBuffer range(IntBuffer words, int from, int length) {
+
+    // Limit a view of the words to the given range. The views are used
+    // as Buffers so that the code runs on JVMs before Java 9...
+
+    ((Buffer) words).limit(from + length);
+    ((Buffer) words).position(from);
+    return words;
+  }
+
+  public Heap copyOf(int size) {
+    DirectHeap heap = new DirectHeap(size);
+    copy(0, heap, 0, Math.min(size, this.size));
+    return heap;
+  }
+
+  public int[] array() {
+    return null;
+  }
+
+}
@@ -0,0 +1,64 @@
+package engine;
+
+/******************************************************************************
+ *                                                                            *
+ *                                   Heap                                     *
+ *             ------------------------------------------------               *
+ *                                                                            *
+ *  The machine keeps its values in two heaps of machine words: the current   *
+ *  heap and the heap that the garbage collector copies into. A Heap is a     *
+ *  fixed number of words indexed from 0. An ArrayHeap holds the words in a   *
+ *  Java int array and a DirectHeap holds them in memory outside the Java     *
+ *  heap (see -offHeap). Code that needs the speed of array access (compiled  *
+ *  code and the parallel collector) asks the heap for its array and falls    *
+ *  back to the heap operations when there is no array.                       *
+ *                                                                            *
+ ******************************************************************************/
+
+import java.nio.IntBuffer;
+
+public interface Heap {
+
+  // The number of words in the heap...
+
+  public int size();
+
+  // Get and set the word at the given address...
+
+  public int get(int ptr);
+
+  public void set(int ptr, int word);
+
+  // Set the words from 'from' up to (but not including) 'to'...
+
+  public void fill(int from, int to, int word);
+
+  // Copy length words starting at 'from' into the heap 'to' starting
+  // at 'ptr'...
+
+  public void copy(int from, Heap to, int ptr, int length);
+
+  // Copy words between the heap and a Java array...
+
+  public void read(int from, int[] words, int index, int length);
+
+  public void write(int[] words, int index, int ptr, int length);
+
+  // Copy words between the heap and the current position of a buffer
+  // (used to save and load images)...
+
+  public void read(int from, IntBuffer words, int length);
+
+  public void write(IntBuffer words, int ptr, int length);
+
+  // Returns a new heap of the same kind with the given size. The words
+  // of this heap are copied into it...
+
+  public Heap copyOf(int size);
+
+  // Returns the array that holds the words or null when the words are
+  // not held in an array...
+
+  public int[] array();
+
+}
@@ -236,6 +236,29 @@ public interface Instr {
     
     public static final int HASSLOT      = 111; // Check whether an element has a slot.
 
+    // ******************************************************************************
+
+    // The following superinstructions are never found in code boxes. They
+    // replace the first of a pair of instructions in the decoded code that
+    // the machine performs (see Machine.fuseInstrs). The second instruction
+    // of the pair is left in place so that it can still be the target of a
+    // skip. A superinstruction performs both instructions or, when it is
+    // not given simple values, just the first of them.
+
+    public static final int LOCALDOT     = 112; // LOCAL then DOT. Operands as DOTLOCAL.
+
+    public static final int SELFSEND     = 113; // SELF then SEND. Operands as SEND.
+
+    public static final int PUSHINTADD   = 114; // PUSHINT then ADD. Operand is the int.
+
+    public static final int PUSHINTSUB   = 115; // PUSHINT then SUB. Operand is the int.
+
+    public static final int EQLSKPF      = 116; // EQL then SKPF. Operand is the skip.
+
+    public static final int LESSSKPF     = 117; // LESS then SKPF. Operand is the skip.
+
+    public static final int GRESKPF      = 118; // GRE then SKPF. Operand is the skip.
+
     // ******************************************************************************
     
     // The following are obsolete:
@@ -43,7 +43,10 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.IntBuffer;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -63,6 +66,7 @@ import threads.ThreadInitiator;
 import threads.ThreadMonitor;
 import undo.UndoEngine;
 import util.QuickSort;
+import values.AllocationProfile;
 import values.Daemons;
 import values.Memory;
 import values.ObjectProperties;
@@ -76,6 +80,7 @@ import xos.Message;
 import xos.MessagePacket;
 import xos.OperatingSystem;
 import xos.TChannel;
+import xos.XChannel;
 import xos.XData;
 import clients.ClientResult;
 import debug.Debugger;
@@ -87,6 +92,7 @@ import foreignfuns.ForeignFuns;
 import foreignobj.ForeignObject;
 import foreignobj.ForeignObjectMOP;
 import gc.GC;
+import gc.ParallelScan;
 
 public final class Machine implements Words, Constants, ObjectProperties, Daemons, StackFrame, Instr, Value, Errors, SignalHandler {
 
@@ -99,16 +105,38 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   // The heap is allocated to be heapSize words, unless the image that is
   // loaded requires a larger heap. Note that since XMF has a stop-and-
-  // copy garbage collector then the actual allocation is twice heapSize...
+  // copy garbage collector then the actual allocation is twice heapSize.
+  // The heap cannot be larger than MAXHEAP words (see Words)...
 
   public int                                                              heapSize                  = HEAPSIZE;
 
+  // The heaps are held in Java int arrays unless offHeap is set (-offHeap)
+  // in which case they are held in direct buffers outside the Java heap...
+
+  public boolean                                                          offHeap                   = false;
+
+  // Images are saved as mapped images unless compressImages is set
+  // (-compressImages) in which case they are packed and checksummed...
+
+  public boolean                                                          compressImages            = false;
+
+  // When optimiseImages is set (-optimiseImages) the caches that are
+  // rebuilt on demand are dropped and the heap is collected before an
+  // image is saved (see optimiseHeap)...
+
+  public boolean                                                          optimiseImages            = false;
+
   // The stack is allocated to be stackSize words. Increasing this will
   // allow increasing depths of call chains. Note that since XOCL supports
   // tail calling you should not need to make this too large...
 
   public int                                                              stackSize                 = STACKSIZE;
 
+  // Open addressing tables are resized when an insert takes the number
+  // of used slots above tableLoad percent of the capacity...
+
+  public int                                                              tableLoad                 = TABLELOAD;
+
   // The amount of heap that is used before a garbage collect is invoked...
 
   public int                                                              gcLimit                   = HEAPSIZE - K;
@@ -190,7 +218,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   // specifies the name of a command line argument and the number of arguments
   // that are supplied...
 
-  private String[]                                                        XVMargSpecs               = { "-instr:0", "-frames:0", "-stats:0", "-heapSize:1", "-stackSize:1", "-initFile:1", "-freeHeap:1", "-stackDump:0", "-image:1", "-arg:1" };
+  private String[]                                                        XVMargSpecs               = { "-instr:0", "-frames:0", "-stats:0", "-heapSize:1", "-stackSize:1", "-tableLoad:1", "-profileInstrs:0", "-profileAlloc:1", "-jit:1", "-jitCheck:0", "-quantum:1", "-initFile:1", "-freeHeap:1", "-nursery:1", "-gcStep:1", "-gcThreads:1", "-gcCheck:0", "-offHeap:0", "-compressImages:0", "-optimiseImages:0", "-stackDump:0", "-image:1", "-arg:1" };
 
   // VM can be prined showing how many items of a given type have
   // been allocated. The memory table is used toc ontain the amount of
@@ -210,12 +238,121 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int                                                              calls                     = 0;
 
+  // The number of times tables have been grown and the number of times
+  // deleted slots have been cleared out of tables since startup...
+
+  public int                                                              tableResizes              = 0;
+  public int                                                              tablePurges               = 0;
+
+  // Each SEND instruction has an inline cache that maps the classifiers
+  // of the targets it has been performed on to the operations that were
+  // found. The caches refer to heap addresses and to the operator table
+  // so they are invalidated by advancing the send epoch when the heap
+  // is swapped or loaded and when the operator table is reset...
+
+  private int[]                                                           sendCache                 = new int[SENDCACHELINES * SENDCACHELINE];
+  private int                                                             sendEpoch                 = 1;
+  public int                                                              sendCacheHits             = 0;
+  public int                                                              sendCacheMisses           = 0;
+
+  // Each slot access and update instruction has an inline cache that
+  // records the attribute of the last object it was performed on and the
+  // position of the slot in the attributes of instances of its class. The
+  // attribute is used directly when the instruction is performed on the
+  // same object again. Instances created by the machine have their slots
+  // in the same order so the cached position is checked against the slot
+  // name and the attributes are walked by name when an object has a
+  // different layout (for example when slots have been added by
+  // objAddAttribute). The slot epoch is advanced when the heap moves, when
+  // the slot MOP of a class changes and when attributes are removed from
+  // an object. The position of the attribute found by objAttribute is
+  // recorded so that a miss only walks the attributes once...
+
+  private int[]                                                           slotCache                 = new int[SLOTCACHELINES * SLOTCACHELINE];
+  private int                                                             slotEpoch                 = 1;
+  private int                                                             foundAttribute            = -1;
+  private int                                                             foundAttributeIndex       = 0;
+  public int                                                              slotCacheHits             = 0;
+  public int                                                              slotCacheObjectHits       = 0;
+  public int                                                              slotCacheMisses           = 0;
+
+  // The instructions of a code box are decoded into a Java array before
+  // they are performed (see performInstrs). The decoded instructions are
+  // cached by code box in DECODECACHELINES lines. Code boxes move when
+  // the heap is swapped and instructions can be updated in place so the
+  // cached code is invalidated by advancing the decode epoch...
+
+  private int[]                                                           decodedBoxes              = new int[DECODECACHELINES];
+  private int[]                                                           decodedEpochs             = new int[DECODECACHELINES];
+  private int[][]                                                         decodedCode               = new int[DECODECACHELINES][];
+  private int                                                             decodeEpoch               = 1;
+  private int[]                                                           decodedCalls              = new int[DECODECACHELINES];
+  private CompiledCode[]                                                  decodedCompiled           = new CompiledCode[DECODECACHELINES];
+  public int                                                              decodeHits                = 0;
+  public int                                                              decodeMisses              = 0;
+
+  // When instructions are profiled (-profileInstrs) the machine counts
+  // the pairs and triples of instruction tags that are performed. The
+  // counts are printed with the machine statistics and are used to
+  // choose the sequences that are fused into superinstructions. The
+  // instructions are not fused while they are being profiled...
+
+  public boolean                                                          profileInstrs             = false;
+  private int[]                                                           instrPairs                = null;
+  private int[]                                                           instrTriples              = null;
+  private int                                                             profiledTag1              = 0;
+  private int                                                             profiledTag2              = 0;
+
+  // When allocation is profiled (-profileAlloc N) one in every N allocations
+  // is attributed to the code that performs it. A census collection records
+  // the objects that it copies in census so that the objects that are alive
+  // can be counted by classifier (see AllocationProfile)...
+
+  public AllocationProfile                                                allocationProfile         = null;
+  private int[]                                                           census                    = null;
+  private int                                                             censusLength              = 0;
+
+  // When jitThreshold is positive (-jit) a code box that is entered
+  // jitThreshold times is compiled to a JVM class by the code compiler.
+  // Compiled code is recorded against the decoded instructions so that
+  // code boxes with the same instructions share it and it survives the
+  // heap being swapped. The compile epoch is advanced when compiled
+  // code is attached to a line of the decode cache. Compiled code reads
+  // the heap array so nothing is compiled when the heap is off heap...
+
+  public int                                                              jitThreshold              = 0;
+  private CodeCompiler                                                    codeCompiler              = new CodeCompiler();
+  private Hashtable<IntBuffer, CompiledCode>                              compiledCode              = new Hashtable<IntBuffer, CompiledCode>();
+  private int                                                             compileEpoch              = 0;
+  public int                                                              codeBoxesCompiled         = 0;
+
+  // When jitCheck is set (-jitCheck) compiled code is checked against the
+  // interpreter instead of being used. The compiled code is performed on a
+  // copy of the current frame and the interpreter then performs the same
+  // instructions on the stack. When the interpreter reaches the instruction
+  // at which the compiled code stopped the two frames must be the same.
+  // Checks that are overtaken by a garbage collection or that stop in the
+  // middle of the in-lined instructions are skipped. The decoded code is
+  // invalidated every JITCHECKINVALIDATE checks so that compiled code is
+  // also checked after it has been found again for the new decoded code...
+
+  public boolean                                                          jitCheck                  = false;
+  public int                                                              jitChecks                 = 0;
+  public int                                                              jitChecksSkipped          = 0;
+  public int                                                              jitCheckFailures          = 0;
+  private int[]                                                           checkStack                = null;
+  private int                                                             checkFrame                = -1;
+  private int                                                             checkPc                   = 0;
+  private int                                                             checkSp                   = 0;
+  private int                                                             checkInstrs               = 0;
+  private int                                                             checkCollections          = 0;
+
   // The heap is an integer array represented as heap. Memory is
   // allocated (but not freed) until the heap is exhausted when a
   // garbage collect happens. The garbage collector swaps over
   // the heap and copies the used data into the new heap...
 
-  private int[]                                                           words;
+  private Heap                                                            words;
 
   // A pointer into the heap showing the next freely available
   // word...
@@ -225,12 +362,20 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   // The gcWords is a heap used to copy the current heap into
   // when the system garbage collects...
 
-  private int[]                                                           gcWords;
+  private Heap                                                            gcWords;
 
   // The free pointer into the garbage collecting heap...
 
   private int                                                             gcFreePtr                 = 0;
 
+  // Allocated heap words that are not initialised must be undefined. The
+  // heap above the free pointer is cleared lazily, a chunk at a time,
+  // as it is allocated. The words from the free pointer up to the clear
+  // pointer are known to be undefined...
+
+  private int                                                             clearPtr                  = 0;
+  private int                                                             gcClearPtr                = 0;
+
   // Used by the garbage collector...
 
   private int                                                             gcCopiedPtr               = 0;
@@ -242,6 +387,95 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   private int                                                             gcTOS                     = 0;
 
+  // The heap is divided into an old generation below oldTop and a young
+  // generation (the nursery) from oldTop to freePtr. A minor collection
+  // copies the live young values to oldTop and leaves the old generation
+  // where it is. Everything that survives a collection becomes old...
+
+  private int                                                             oldTop                    = 0;
+
+  // The size of the nursery in words. A negative size is replaced by a
+  // fraction of the heap and 0 makes every collection a full collection...
+
+  public int                                                              nurserySize               = -1;
+
+  // A collection is needed when freePtr passes gcTrigger. This is the
+  // GC limit or the end of the nursery, whichever comes first...
+
+  private int                                                             gcTrigger                 = HEAPSIZE - K;
+
+  // During a minor collection values below gcBoundary are old and are
+  // not copied. The boundary is 0 during a full collection...
+
+  private int                                                             gcBoundary                = 0;
+
+  // True while the machine is in a collection. Values that are referenced
+  // from the stack may be in either heap until the collection is done...
+
+  private boolean                                                         collecting                = false;
+
+  // The card table has an entry for each 1 << CARDBITS words of heap that
+  // is marked when a word in the card is updated. A minor collection scans
+  // the marked cards of the old generation for pointers to young values.
+  // Values are not aligned with cards, so cardStarts records the first
+  // heap word that a scan of each card must start from...
+
+  private byte[]                                                          cards;
+  private int[]                                                           cardStarts;
+
+  // Tables in the old generation that have young keys hashed by address
+  // must be rehashed after a minor collection moves the keys...
+
+  private int[]                                                           youngKeyTables            = new int[16];
+  private int                                                             youngKeyTableCount        = 0;
+
+  // An incremental collection replicates the heap into the GC heap a
+  // step at a time while the machine carries on using the heap. Each
+  // step scans gcStepSize words of the GC heap (0 means that every full
+  // collection stops the machine until it is complete). The forwarding
+  // addresses of replicated values are kept in replicas, indexed by
+  // heap word, since the headers of the values are still in use. A
+  // forwarding address is tagged with the epoch of the collection and
+  // marks words of raw data that must not be copied as values. The words
+  // in marked cards are copied again at each step. When the scan is
+  // complete the roots are copied again and the heaps are swapped...
+
+  public int                                                              gcStepSize                = 0;
+  private boolean                                                         replicating               = false;
+  private boolean                                                         gcSnapshot                = false;
+  private boolean                                                         gcOrdered                 = false;
+  private int[]                                                           replicas;
+  private int                                                             replicaEpoch              = 0;
+  private int                                                             replicaTop                = 0;
+  private int                                                             replicaParsed             = 0;
+  private int                                                             replicaPace               = 0;
+  private int[]                                                           replicaTables             = new int[16];
+  private int                                                             replicaTableCount         = 0;
+
+  // The scan of a collection can be performed by a number of threads.
+  // When gcThreads is 0 the number of threads depends on the size of the
+  // heap and the number of processors. When gcCheck is set (-gcCheck)
+  // a collection that would be scanned by a number of threads is scanned
+  // by the GC and the threads scan copies of the heaps so that the two
+  // scans can be compared (see ParallelScan.check)...
+
+  public int                                                              gcThreads                 = 0;
+  private ParallelScan                                                    parallelScan;
+  public boolean                                                          gcCheck                   = false;
+  public int                                                              gcChecks                  = 0;
+  public int                                                              gcCheckFailures           = 0;
+
+  // Collection statistics...
+
+  public int                                                              minorCollections          = 0;
+  public int                                                              fullCollections           = 0;
+  public long                                                             minorCollectionTime       = 0;
+  public long                                                             fullCollectionTime        = 0;
+  public long                                                             longestCollection         = 0;
+  private int                                                             recentMinorCollections    = 0;
+  private long                                                            recentMinorCollectionTime = 0;
+  private int                                                             recentIncrements          = 0;
+
   // Symbols are maintained in the symbol table where the keys are
   // the names of the symbols. When a new symbol is required, the
   // VM looks into the symbol table to see if there is already a
@@ -275,6 +509,16 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   private boolean                                                         yield                     = false;
 
+  // A thread is preempted when it has performed quantum instructions since
+  // it was scheduled (-quantum N). The thread yields and XOS schedules the
+  // next thread by priority (see ThreadQueue). A quantum of 0 leaves each
+  // thread to run until it yields or blocks. The current thread is preempted
+  // when instrsPerformed reaches sliceEnd...
+
+  public int                                                              quantum                   = 0;
+  private int                                                             sliceEnd                  = 0;
+  private boolean                                                         preempted                 = false;
+
   // The call stack...
 
   private ValueStack                                                      valueStack;
@@ -460,6 +704,12 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   private StringBuffer                                                    clientName                = new StringBuffer();
 
+  // Strings and buffers are written to output channels in blocks. The
+  // characters are staged in the write bytes so that each block is written
+  // by a single call to the operating system...
+
+  private byte[]                                                          writeBytes                = new byte[XChannel.BUFFER_SIZE];
+
   // Call back from Java is provided via the client interface. The client
   // interface table is a table mapping Java-exposed client names to
   // operations that will handle the call back...
@@ -532,23 +782,27 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public static final int tag(int word) {
-    // Get the type tag on a machine word.
-    return (word & BYTE4) >>> 24;
+    // Get the type tag on a machine word. Instructions use the
+    // whole of the top byte (see byte4)...
+    return (word & TAG) >>> 24;
   }
 
   public final void set(int ptr, int value) {
 
     // Set the contents of the heap location at
-    // 'ptr' to be value...
+    // 'ptr' to be value. The card containing the
+    // location is marked for minor collections...
 
-    words[ptr] = value;
+    words.set(ptr, value);
+    cards[ptr >>> CARDBITS] = 1;
   }
 
   public static final int ptr(int word) {
 
-    // Get the pointer part of a machine word...
+    // Get the pointer part of a machine word. The segment
+    // bits of the word are the top bits of the address...
 
-    return word & PTR;
+    return (word & PTR) | ((word >>> SEGMENTSHIFT) & SEGMENTPTR);
   }
 
   public static final int value(int word) {
@@ -562,7 +816,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Return the machine word at the given heap location...
 
-    return words[ptr];
+    return words.get(ptr);
   }
 
   public void setFirstWord(int word, int value) {
@@ -582,13 +836,25 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // raw pointer to the new storage.
 
     int ptr = -1;
-    if ((freePtr + length) < words.length) {
+    if ((freePtr + length) < words.size()) {
       ptr = freePtr;
       freePtr = freePtr + length;
+      if (freePtr > clearPtr) clearHeap(ptr);
       return ptr;
     } else return allocFails(length);
   }
 
+  private void clearHeap(int ptr) {
+
+    // The heap above the clear pointer may contain values left over from
+    // before the last collection. Clear the new storage and the next
+    // chunk of the heap...
+
+    int from = Math.max(ptr, clearPtr);
+    clearPtr = Math.min(words.size(), freePtr + CLEARCHUNK);
+    words.fill(from, clearPtr, undefinedValue);
+  }
+
   public int allocFails(int requested) {
 
     // Try to extend the heap. This may fail due to the OS
@@ -598,7 +864,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     if (!extendHeap()) {
       System.out.println("\n****** Alloc Fails **********\n");
       System.out.println("Request to allocate " + requested + " words of memory failed.");
-      System.out.println("Available memory is " + (words.length - freePtr) + " out of " + words.length + " words");
+      System.out.println("Available memory is " + (words.size() - freePtr) + " out of " + words.size() + " words");
       System.out.println("Current GC limit is " + gcLimit + " (available < " + freeHeap + ") words allocated before GC.");
       System.out.println("Current value of freePtr is " + freePtr);
       saveBacktrace(currentFrame);
@@ -612,27 +878,37 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public boolean extendHeap() {
 
     // Called when the system runs out of memory and wants to extend the
-    // heap by the amount defined by incHeap.
+    // heap by the amount defined by incHeap. The last increase may be
+    // smaller so that the heap reaches MAXHEAP words.
 
-    System.out.println("[ Heap exhausted, increase by " + incHeap + " words. ]");
-    System.out.println("[ Re-allocating heap at " + (words.length + incHeap) + " words. ]");
-    return extendHeap(incHeap);
+    int amount = Math.min(incHeap, MAXHEAP - words.size());
+    System.out.println("[ Heap exhausted, increase by " + amount + " words. ]");
+    System.out.println("[ Re-allocating heap at " + (words.size() + amount) + " words. ]");
+    return extendHeap(amount);
   }
 
   public boolean extendHeap(int amount) {
 
     // Extend the heap by the supplied amount. Returns true when the
-    // extension
-    // is successful and false otherwise.
+    // extension is successful and false otherwise. The heap cannot be
+    // extended beyond MAXHEAP words.
 
+    if ((long) words.size() + amount > MAXHEAP) {
+      System.out.println("[ Cannot extend the heap beyond " + MAXHEAP + " words. ]");
+      return false;
+    }
+    if (amount <= 0) return false;
     try {
-      int[] newWords = new int[words.length + amount];
-      for (int i = 0; i < words.length; i++)
-        newWords[i] = words[i];
-      words = newWords;
-      gcWords = new int[words.length + amount];
-      heapSize = words.length;
+      words = words.copyOf(words.size() + amount);
+      if (replicating)
+        gcWords = gcWords.copyOf(words.size());
+      else gcWords = newHeap(words.size());
+      if (replicas != null) replicas = Arrays.copyOf(replicas, words.size());
+      heapSize = words.size();
       gcLimit = heapSize - freeHeap;
+      cards = Arrays.copyOf(cards, cardCount());
+      cardStarts = Arrays.copyOf(cardStarts, cardCount());
+      setGCTrigger();
       return true;
     } catch (Throwable t) {
       return false;
@@ -640,7 +916,40 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public boolean needsGC() {
-    return freePtr > gcLimit;
+    return freePtr > gcTrigger;
+  }
+
+  private void setGCTrigger() {
+
+    // Collect at the GC limit or when the nursery is full. Until the
+    // first full collection there is no old generation and the nursery
+    // starts at the current free pointer...
+
+    if (nurserySize < 0) nurserySize = heapSize / NURSERYFRACTION;
+    if (replicating)
+      gcTrigger = Math.min(gcLimit, freePtr + replicaPace);
+    else if (nurserySize == 0)
+      gcTrigger = gcLimit;
+    else gcTrigger = Math.min(gcLimit, (oldTop == 0 ? freePtr : oldTop) + nurserySize);
+  }
+
+  private int cardCount() {
+    return (words.size() >>> CARDBITS) + 1;
+  }
+
+  private void resetGenerations() {
+
+    // Called when the heap is replaced. Everything in the heap is young
+    // until the next full collection and nothing above the free pointer
+    // is known to be clear...
+
+    oldTop = 0;
+    clearPtr = freePtr;
+    replicating = false;
+    youngKeyTableCount = 0;
+    cards = new byte[cardCount()];
+    cardStarts = new int[cardCount()];
+    setGCTrigger();
   }
 
   // Machine words in the heap have tags. The tags indicate the type of
@@ -818,7 +1127,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int gcArray(int array) {
     int length = arrayLength(array);
-    System.arraycopy(words, ptr(array), gcWords, gcFreePtr, length + ARRAY_HEADER);
+    words.copy(ptr(array), gcWords, gcFreePtr, length + ARRAY_HEADER);
     int ptr = mkPtr(ARRAY, gcFreePtr);
     gcFreePtr += length + ARRAY_HEADER;
     return ptr;
@@ -908,15 +1217,89 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int mkBigInt(long l) {
-    return mkBigInt(new Long(l).toString());
+
+    // Big integers are allocated as a BIGINTLENGTH header recording the
+    // number of limbs, a sign word and then the magnitude as 32 bit limbs
+    // with the least significant limb first. A long needs at most two
+    // limbs. The magnitude is treated as unsigned so that Long.MIN_VALUE
+    // is handled correctly...
+
+    long magnitude = l < 0 ? -l : l;
+    int limbs = (magnitude >>> 32) == 0 ? 1 : 2;
+    int ptr = allocBigInt(Long.signum(l), limbs);
+    set(ptr + BIGINT_HEADER, (int) magnitude);
+    if (limbs == 2) set(ptr + BIGINT_HEADER + 1, (int) (magnitude >>> 32));
+    return mkPtr(BIGINT, ptr);
+  }
+
+  public int mkBigInt(int sign, int[] magnitude) {
+
+    // Allocate a big integer from a magnitude whose limbs are ordered
+    // least significant first. Leading zero limbs are dropped...
+
+    int limbs = magnitudeLength(magnitude);
+    if (limbs == 0) return mkBigInt(0L);
+    int ptr = allocBigInt(sign, limbs);
+    words.write(magnitude, 0, ptr + BIGINT_HEADER, limbs);
+    return mkPtr(BIGINT, ptr);
   }
 
   public int mkBigInt(String string) {
+    try {
+      return asBigInt(new BigInteger(string));
+    } catch (NumberFormatException e) {
+      throw new MachineError(TYPE, "Cannot create an integer from " + string);
+    }
+  }
+
+  private int allocBigInt(int sign, int limbs) {
+    memory.alloc(BIGINT, BIGINT_HEADER + limbs);
+    int ptr = alloc(BIGINT_HEADER + limbs);
+    set(ptr, mkImmediate(BIGINTLENGTH, limbs));
+    set(ptr + 1, sign);
+    return ptr;
+  }
 
-    // Big integers are represented as a string...
+  public int mkInteger(long l) {
 
-    int s = mkString(string);
-    return mkPtr(BIGINT, value(s));
+    // Integer arithmetic produces results via mkInteger so that any value
+    // that fits into an immediate is represented as an immediate...
+
+    if (l > MAXINT || l < -MAXINT)
+      return mkBigInt(l);
+    else return mkInt((int) l);
+  }
+
+  public int mkInteger(int sign, int[] magnitude) {
+    int limbs = magnitudeLength(magnitude);
+    if (limbs == 0)
+      return mkInt(0);
+    else if (limbs == 1 && (magnitude[0] & 0xFFFFFFFFL) <= MAXINT)
+      return mkInt(sign < 0 ? -magnitude[0] : magnitude[0]);
+    else return mkBigInt(sign, magnitude);
+  }
+
+  public int gcBigInt(int bigInt) {
+
+    // Native big integers are copied as raw words. A big integer from a
+    // legacy image is a retagged decimal string which is converted here...
+
+    int size;
+    if (isLegacyBigInt(bigInt)) {
+      BigInteger b = asBigInteger(bigInt);
+      int[] magnitude = magnitude(b);
+      size = BIGINT_HEADER + Math.max(1, magnitude.length);
+      gcWords.set(gcFreePtr, mkImmediate(BIGINTLENGTH, size - BIGINT_HEADER));
+      gcWords.set(gcFreePtr + 1, b.signum());
+      gcWords.set(gcFreePtr + 2, 0);
+      gcWords.write(magnitude, 0, gcFreePtr + BIGINT_HEADER, magnitude.length);
+    } else {
+      size = BIGINT_HEADER + bigIntLimbs(bigInt);
+      words.copy(ptr(bigInt), gcWords, gcFreePtr, size);
+    }
+    int ptr = mkPtr(BIGINT, gcFreePtr);
+    gcFreePtr += size;
+    return ptr;
   }
 
   public static int mkBool(boolean value) {
@@ -990,7 +1373,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int gcCode(int code) {
     int length = codeLength(code);
-    System.arraycopy(words, ptr(code), gcWords, gcFreePtr, length + CODE_HEADER);
+    words.copy(ptr(code), gcWords, gcFreePtr, length + CODE_HEADER);
     int ptr = mkPtr(CODE, gcFreePtr);
     gcFreePtr += length + CODE_HEADER;
     return ptr;
@@ -1026,7 +1409,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int gcCodeBox(int codeBox) {
-    System.arraycopy(words, ptr(codeBox), gcWords, gcFreePtr, CODEBOX_SIZE);
+    words.copy(ptr(codeBox), gcWords, gcFreePtr, CODEBOX_SIZE);
     int ptr = mkPtr(CODEBOX, gcFreePtr);
     gcFreePtr += CODEBOX_SIZE;
     return ptr;
@@ -1054,7 +1437,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int gcCons(int cons) {
-    System.arraycopy(words, ptr(cons), gcWords, gcFreePtr, CONS_SIZE);
+    words.copy(ptr(cons), gcWords, gcFreePtr, CONS_SIZE);
     int ptr = mkPtr(CONS, gcFreePtr);
     gcFreePtr += CONS_SIZE;
     return ptr;
@@ -1092,7 +1475,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int gcDaemon(int daemon) {
-    System.arraycopy(words, ptr(daemon), gcWords, gcFreePtr, DAEMON_SIZE);
+    words.copy(ptr(daemon), gcWords, gcFreePtr, DAEMON_SIZE);
     int ptr = mkPtr(DAEMON, gcFreePtr);
     gcFreePtr += DAEMON_SIZE;
     return ptr;
@@ -1270,18 +1653,25 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int mkFloat() {
-
-    // Floats are represented as strings...
-
-    return mkFloat("0.0");
+    return mkFloat(0.0f);
   }
 
   public int mkFloat(double d) {
-    return mkFloat("" + d);
+    return mkFloat((float) d);
   }
 
   public int mkFloat(float f) {
-    return mkFloat("" + f);
+
+    // Floats are allocated as a header word followed by the raw
+    // IEEE bits of the float. The header is tagged FLOATBITS so
+    // that the garbage collector knows to skip the raw bits which
+    // may look like any other machine word...
+
+    memory.alloc(FLOAT, FLOAT_SIZE);
+    int ptr = alloc(FLOAT_SIZE);
+    set(ptr, mkImmediate(FLOATBITS, 0));
+    set(ptr + 1, Float.floatToRawIntBits(f));
+    return mkPtr(FLOAT, ptr);
   }
 
   public int mkFloat(int prePoint, int postPoint) {
@@ -1290,15 +1680,38 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int mkFloat(String value) {
 
-    // The VM allocates a string to represent a float.
-    // Float operations decode and encode the strings
-    // as necessary (how efficient is that!)...
+    // Floats are no longer represented as strings, but the loader
+    // and the Float constructor still supply the textual form...
 
-    memory.alloc(FLOAT, FLOAT_SIZE);
-    int ptr = alloc(FLOAT_SIZE);
-    int str = mkString(value);
-    set(ptr, str);
-    return mkPtr(FLOAT, ptr);
+    try {
+      return mkFloat(Float.parseFloat(value));
+    } catch (NumberFormatException e) {
+      throw new MachineError(TYPE, "Cannot create a float from " + value);
+    }
+  }
+
+  public int gcFloat(int f) {
+
+    // Native floats are copied as raw words. A float from a legacy
+    // image refers to its string representation which is decoded
+    // here so that the copy in the new heap is native. The string
+    // may already have been copied if it is shared...
+
+    if (isLegacyFloat(f)) {
+      int str = ref(ptr(f));
+      String s;
+      if (collected(str)) {
+        int newStr = forward(STRING, str);
+        swapHeap();
+        s = valueToString(newStr);
+        swapHeap();
+      } else s = valueToString(str);
+      gcWords.set(gcFreePtr, mkImmediate(FLOATBITS, 0));
+      gcWords.set(gcFreePtr + 1, Float.floatToRawIntBits(Float.parseFloat(s)));
+    } else words.copy(ptr(f), gcWords, gcFreePtr, FLOAT_SIZE);
+    int ptr = mkPtr(FLOAT, gcFreePtr);
+    gcFreePtr += FLOAT_SIZE;
+    return ptr;
   }
 
   public int mkForeignFun(int index) {
@@ -1354,7 +1767,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int gcFun(int fun) {
-    System.arraycopy(words, ptr(fun), gcWords, gcFreePtr, FUN_SIZE);
+    words.copy(ptr(fun), gcWords, gcFreePtr, FUN_SIZE);
     int ptr = mkPtr(FUN, gcFreePtr);
     gcFreePtr += FUN_SIZE;
     return ptr;
@@ -1411,11 +1824,225 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     int table = mkArray(size);
     hashTableClear(table);
-    return mkPtr(HASHTABLE, table);
+    return mkPtr(HASHTABLE, ptr(table));
+  }
+
+  public int mkOpenHashtable(int size) {
+
+    // An open addressing table keeps its keys and values inline in a
+    // single storage array: slot i has its key at 2i and its value at
+    // 2i+1. Lookup probes linearly from the slot selected by the hash
+    // code of the key and no cons cells are allocated on insert. The
+    // table is a header that refers to the storage so that the storage
+    // can be replaced when the table grows. The header has the same
+    // daemon fields as an array...
+
+    memory.alloc(HASHTABLE, OPENTABLE_SIZE);
+    int ptr = alloc(OPENTABLE_SIZE);
+    set(ptr, mkImmediate(OPENTABLE, 0));
+    set(ptr + 1, trueValue);
+    set(ptr + 2, nilValue);
+    set(ptr + 3, mkInt(0));
+    set(ptr + 4, mkInt(0));
+    set(ptr + 5, mkOpenTableStorage(openTableCapacityFor(size)));
+    return mkPtr(HASHTABLE, ptr);
+  }
+
+  public int asOpenHashtable(int table) {
+
+    // Create an open addressing table with the contents of an
+    // existing table...
+
+    int keys = hashTableKeys(table);
+    int openTable = mkOpenHashtable(consLength(keys));
+    while (keys != nilValue) {
+      int key = consHead(keys);
+      hashTablePut(openTable, key, hashTableGet(table, key));
+      keys = consTail(keys);
+    }
+    return openTable;
+  }
+
+  private int mkOpenTableStorage(int capacity) {
+    int storage = mkArray(capacity * 2);
+    openTableClear(storage);
+    return storage;
+  }
+
+  private int openTableCapacityFor(int size) {
+
+    // The capacity is a power of 2 with room for size entries
+    // below the maximum load...
+
+    int capacity = 8;
+    while (capacity * tableLoad <= size * 100)
+      capacity = capacity * 2;
+    return capacity;
+  }
+
+  public boolean isOpenTable(int table) {
+    return tag(ref(ptr(table))) == OPENTABLE;
+  }
+
+  public int openTableCapacity(int table) {
+    return arrayLength(openTableStorage(table)) / 2;
+  }
+
+  public int openTableCount(int table) {
+    return value(ref(ptr(table) + 3));
+  }
+
+  public int openTableDeleted(int table) {
+    return value(ref(ptr(table) + 4));
+  }
+
+  public int openTableStorage(int table) {
+    return ref(ptr(table) + 5);
+  }
+
+  private void openTableSetCount(int table, int count) {
+    set(ptr(table) + 3, mkInt(count));
+  }
+
+  private void openTableSetDeleted(int table, int deleted) {
+    set(ptr(table) + 4, mkInt(deleted));
+  }
+
+  private void openTableClear(int storage) {
+    int capacity = arrayLength(storage) / 2;
+    for (int i = 0; i < capacity; i++) {
+      set(openTableKeyPtr(storage, i), emptyKeyValue);
+      set(openTableKeyPtr(storage, i) + 1, undefinedValue);
+    }
+  }
+
+  private int openTableKeyPtr(int storage, int slot) {
+    return ptr(storage) + ARRAY_HEADER + (slot * 2);
+  }
+
+  public int openTableKey(int storage, int slot) {
+    return ref(openTableKeyPtr(storage, slot));
+  }
+
+  public int openTableValue(int storage, int slot) {
+    return ref(openTableKeyPtr(storage, slot) + 1);
+  }
+
+  public boolean openTableIsUsed(int storage, int slot) {
+    return tag(openTableKey(storage, slot)) != OPENTABLE;
+  }
+
+  private static int openTableStart(int hashCode, int capacity) {
+
+    // Keys hashed by address have low bits that follow the allocation
+    // pattern so the hash code is spread using Fibonacci hashing...
+
+    return (hashCode * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(capacity));
+  }
+
+  public int openTableSlot(int table, int key) {
+
+    // Return the slot containing the key or -1 if the key is not in
+    // the table. The table always has an empty slot so the probe
+    // terminates...
+
+    int storage = openTableStorage(table);
+    int mask = (arrayLength(storage) / 2) - 1;
+    int slot = openTableStart(hashCode(key), mask + 1);
+    while (true) {
+      int k = openTableKey(storage, slot);
+      if (k == emptyKeyValue) return -1;
+      if (k == key || (k != deletedKeyValue && equalValues(k, key))) return slot;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public int openTableSlot(int table, CharSequence key) {
+    int storage = openTableStorage(table);
+    int mask = (arrayLength(storage) / 2) - 1;
+    int slot = openTableStart(hashCode(key), mask + 1);
+    while (true) {
+      int k = openTableKey(storage, slot);
+      if (k == emptyKeyValue) return -1;
+      if (isString(k) && stringEqual(k, key)) return slot;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private int openTableFreeSlot(int storage, int key) {
+
+    // Return the first empty or deleted slot on the probe sequence
+    // for the key. Assumes that the key is not in the table...
+
+    int mask = (arrayLength(storage) / 2) - 1;
+    int slot = openTableStart(hashCode(key), mask + 1);
+    while (openTableIsUsed(storage, slot))
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private void openTablePut(int table, int key, int value) {
+    int slot = openTableSlot(table, key);
+    int storage = openTableStorage(table);
+    if (slot != -1) {
+      undo.setTable(table, key, value, openTableValue(storage, slot));
+      set(openTableKeyPtr(storage, slot) + 1, value);
+    } else {
+      int count = openTableCount(table);
+      int deleted = openTableDeleted(table);
+      int capacity = arrayLength(storage) / 2;
+      if ((count + deleted + 1) * 100 > capacity * tableLoad) {
+
+        // The maximum load has been reached. Grow the table until the
+        // live entries take at most half the maximum load, otherwise
+        // the load is mostly deleted slots which are just cleared out...
+
+        int newCapacity = capacity;
+        while ((count + 1) * 200 > newCapacity * tableLoad)
+          newCapacity = newCapacity * 2;
+        if (newCapacity == capacity)
+          tablePurges++;
+        else tableResizes++;
+        openTableResize(table, newCapacity);
+        storage = openTableStorage(table);
+        deleted = 0;
+      }
+      slot = openTableFreeSlot(storage, key);
+      if (openTableKey(storage, slot) == deletedKeyValue) openTableSetDeleted(table, deleted - 1);
+      set(openTableKeyPtr(storage, slot), key);
+      set(openTableKeyPtr(storage, slot) + 1, value);
+      openTableSetCount(table, count + 1);
+    }
+  }
+
+  private void openTableResize(int table, int capacity) {
+
+    // Move the entries into new storage. Used to grow the table, to
+    // remove deleted slots and to rehash after garbage collection
+    // when keys hashed by address have moved...
+
+    int oldStorage = openTableStorage(table);
+    int oldCapacity = arrayLength(oldStorage) / 2;
+    int storage = mkOpenTableStorage(capacity);
+    for (int i = 0; i < oldCapacity; i++) {
+      if (openTableIsUsed(oldStorage, i)) {
+        int key = openTableKey(oldStorage, i);
+        int slot = openTableFreeSlot(storage, key);
+        set(openTableKeyPtr(storage, slot), key);
+        set(openTableKeyPtr(storage, slot) + 1, openTableValue(oldStorage, i));
+      }
+    }
+    set(ptr(table) + 5, storage);
+    openTableSetDeleted(table, 0);
   }
 
   public int gcTable(int table) {
-    return mkPtr(HASHTABLE, gcArray(table));
+    if (isOpenTable(table)) {
+      words.copy(ptr(table), gcWords, gcFreePtr, OPENTABLE_SIZE);
+      int ptr = mkPtr(HASHTABLE, gcFreePtr);
+      gcFreePtr += OPENTABLE_SIZE;
+      return ptr;
+    } else return mkPtr(HASHTABLE, ptr(gcArray(table)));
   }
 
   public static final int mkImmediate(int tag, int value) {
@@ -1469,12 +2096,36 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public int gcCopyObj(int objPtr) {
     // The GC wants to copy an existing object from the old heap to the
     // new heap...
-    System.arraycopy(words, ptr(objPtr), gcWords, gcFreePtr, OBJ_SIZE);
+    words.copy(ptr(objPtr), gcWords, gcFreePtr, OBJ_SIZE);
     int ptr = mkPtr(OBJ, gcFreePtr);
     gcFreePtr += OBJ_SIZE;
+    if (census != null) recordCensus(ptr);
     return ptr;
   }
 
+  private void recordCensus(int obj) {
+    if (censusLength == census.length) census = Arrays.copyOf(census, censusLength * 2);
+    census[censusLength++] = obj;
+  }
+
+  public void takeCensus() {
+
+    // Perform a full collection that records the objects that it copies.
+    // Once the heaps have been swapped the objects are counted by the
+    // allocation profile. The parallel scan is not used since the workers
+    // copy objects without the machine...
+
+    if (replicating) finishIncrementalGC();
+    census = new int[K];
+    censusLength = 0;
+    try {
+      fullGC();
+      allocationProfile.census(census, censusLength);
+    } finally {
+      census = null;
+    }
+  }
+
   public int mkObj(int type) {
     int obj = mkObj();
     objSetType(obj, type);
@@ -1538,7 +2189,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int gcString(int string) {
     int l = (stringLength(string) / 4) + 1;
-    System.arraycopy(words, ptr(string), gcWords, gcFreePtr, STRING_HEADER + l);
+    words.copy(ptr(string), gcWords, gcFreePtr, STRING_HEADER + l);
     int ptr = mkPtr(STRING, gcFreePtr);
     gcFreePtr += STRING_HEADER + l;
     return ptr;
@@ -1571,7 +2222,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int gcSymbol(int symbol) {
-    System.arraycopy(words, ptr(symbol), gcWords, gcFreePtr, SYMBOL_SIZE);
+    words.copy(ptr(symbol), gcWords, gcFreePtr, SYMBOL_SIZE);
     int ptr = mkPtr(SYMBOL, gcFreePtr);
     gcFreePtr += SYMBOL_SIZE;
     return ptr;
@@ -1720,10 +2371,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public static final int mkPtr(int tag, int value) {
 
     // Combine the tag in the top byte of the word
-    // with the pointer in the bottom 24 bits. Returns
+    // with the pointer in the bottom 24 bits. Address
+    // bits above PTR go in the segment bits. Returns
     // a machine word...
 
-    return (tag << 24) | (value & DATA);
+    return (tag << 24) | (value & PTR) | ((value & SEGMENTPTR) << SEGMENTSHIFT);
   }
 
   public final static int mkThread(int threadId) {
@@ -1851,28 +2503,273 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Return true or false...
 
-    return asBigInteger(bigInt).compareTo(new BigInteger("0")) < 0;
+    return integerSign(bigInt) < 0;
+  }
+
+  public boolean isLegacyBigInt(int bigInt) {
+
+    // Images saved before big integers had a native representation
+    // encode a big integer as a pointer to a decimal string...
+
+    return tag(ref(ptr(bigInt))) != BIGINTLENGTH;
+  }
+
+  public int bigIntLimbs(int bigInt) {
+    return value(ref(ptr(bigInt)));
+  }
+
+  public int bigIntLimb(int bigInt, int index) {
+    return ref(ptr(bigInt) + BIGINT_HEADER + index);
+  }
+
+  public int bigIntHashCode(int bigInt) {
+
+    // Big integers that are equal to an immediate integer must have
+    // the same hash code as the immediate (see equalNumbers)...
+
+    if (isLongInteger(bigInt)) {
+      long l = Math.abs(longValue(bigInt));
+      return (int) (l ^ (l >>> 32)) & DATA;
+    } else return asBigInteger(bigInt).hashCode() & DATA;
+  }
+
+  public int integerSign(int value) {
+
+    // Returns -1, 0 or 1 for any integer value...
+
+    if (isInt(value))
+      return value(value) == 0 ? 0 : 1;
+    else if (isNegInt(value))
+      return value(value) == 0 ? 0 : -1;
+    else if (isLegacyBigInt(value))
+      return asBigInteger(value).signum();
+    else return ref(ptr(value) + 1);
+  }
+
+  public int[] integerMagnitude(int value) {
+
+    // Returns the limbs of the absolute value of any integer value,
+    // least significant first...
+
+    if (isInt(value) || isNegInt(value))
+      return new int[] { value(value) };
+    else if (isLegacyBigInt(value))
+      return magnitude(asBigInteger(value));
+    else {
+      int[] magnitude = new int[bigIntLimbs(value)];
+      words.read(ptr(value) + BIGINT_HEADER, magnitude, 0, magnitude.length);
+      return magnitude;
+    }
+  }
+
+  public boolean isLongInteger(int value) {
+
+    // Returns true when the integer value can be handled as a Java long.
+    // This is the fast path for big integer arithmetic since timestamps
+    // and identifiers rarely need more than 63 bits...
+
+    if (isInt(value) || isNegInt(value))
+      return true;
+    else if (!isBigInt(value) || isLegacyBigInt(value))
+      return false;
+    else {
+      int limbs = bigIntLimbs(value);
+      return limbs == 1 || (limbs == 2 && bigIntLimb(value, 1) >= 0);
+    }
+  }
+
+  public long longValue(int value) {
+
+    // Assumes that isLongInteger(value) is true...
+
+    if (isInt(value) || isNegInt(value)) return intValue(value);
+    long magnitude = bigIntLimb(value, 0) & 0xFFFFFFFFL;
+    if (bigIntLimbs(value) == 2) magnitude |= ((long) bigIntLimb(value, 1)) << 32;
+    return integerSign(value) < 0 ? -magnitude : magnitude;
   }
 
   public BigInteger asBigInteger(int bigInt) {
-    int string = mkPtr(STRING, value(bigInt));
-    return new BigInteger(valueToString(string));
+    if (isLegacyBigInt(bigInt)) {
+      int string = mkPtr(STRING, ptr(bigInt));
+      return new BigInteger(valueToString(string));
+    } else {
+      int sign = integerSign(bigInt);
+      int limbs = bigIntLimbs(bigInt);
+      byte[] bytes = new byte[limbs * 4];
+      for (int i = 0; i < limbs; i++) {
+        int limb = bigIntLimb(bigInt, i);
+        int index = bytes.length - (i * 4) - 1;
+        bytes[index] = (byte) limb;
+        bytes[index - 1] = (byte) (limb >>> 8);
+        bytes[index - 2] = (byte) (limb >>> 16);
+        bytes[index - 3] = (byte) (limb >>> 24);
+      }
+      return sign == 0 ? BigInteger.ZERO : new BigInteger(sign, bytes);
+    }
   }
 
   public int asBigInt(BigInteger bigInteger) {
-    return mkBigInt(bigInteger.toString());
+    return mkBigInt(bigInteger.signum(), magnitude(bigInteger));
+  }
+
+  public static int[] magnitude(BigInteger bigInteger) {
+    BigInteger abs = bigInteger.abs();
+    int[] magnitude = new int[(abs.bitLength() + 31) / 32];
+    for (int i = 0; i < magnitude.length; i++)
+      magnitude[i] = abs.shiftRight(i * 32).intValue();
+    return magnitude;
   }
 
   public BigInteger ensureBigInt(int value) {
     if (isInt(value) || isNegInt(value))
-      return asBigInteger(mkBigInt(intValue(value)));
+      return BigInteger.valueOf(intValue(value));
     else if (isBigInt(value))
       return asBigInteger(value);
     else throw new Error("Cannot create big integer from " + valueToString(value));
   }
 
+  public int bigIntAdd(int v1, int v2) {
+
+    // Add any two integer values. Try the long fast path first and
+    // drop into limb arithmetic when the result overflows...
+
+    if (isLongInteger(v1) && isLongInteger(v2)) {
+      long l1 = longValue(v1);
+      long l2 = longValue(v2);
+      long l = l1 + l2;
+      if (((l1 ^ l) & (l2 ^ l)) >= 0) return mkInteger(l);
+    }
+    return signedAdd(integerSign(v1), integerMagnitude(v1), integerSign(v2), integerMagnitude(v2));
+  }
+
   public int bigIntSub(int v1, int v2) {
-    return asBigInt(ensureBigInt(v1).subtract(ensureBigInt(v2)));
+    if (isLongInteger(v1) && isLongInteger(v2)) {
+      long l1 = longValue(v1);
+      long l2 = longValue(v2);
+      long l = l1 - l2;
+      if (((l1 ^ l2) & (l1 ^ l)) >= 0) return mkInteger(l);
+    }
+    return signedAdd(integerSign(v1), integerMagnitude(v1), -integerSign(v2), integerMagnitude(v2));
+  }
+
+  public int bigIntMul(int v1, int v2) {
+    if (isLongInteger(v1) && isLongInteger(v2)) {
+      long l1 = longValue(v1);
+      long l2 = longValue(v2);
+      long l = l1 * l2;
+      if (l1 == 0 || (l / l1 == l2 && !(l1 == -1 && l2 == Long.MIN_VALUE))) return mkInteger(l);
+    }
+    return mkInteger(integerSign(v1) * integerSign(v2), magnitudeMul(integerMagnitude(v1), integerMagnitude(v2)));
+  }
+
+  public int bigIntCompare(int v1, int v2) {
+
+    // Returns a negative, zero or positive int as v1 is less than,
+    // equal to or greater than v2...
+
+    if (isLongInteger(v1) && isLongInteger(v2)) {
+      long l1 = longValue(v1);
+      long l2 = longValue(v2);
+      return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+    int s1 = integerSign(v1);
+    int s2 = integerSign(v2);
+    if (s1 != s2)
+      return s1 < s2 ? -1 : 1;
+    else return s1 * magnitudeCompare(integerMagnitude(v1), integerMagnitude(v2));
+  }
+
+  public double integerToDouble(int value) {
+    if (isLongInteger(value))
+      return longValue(value);
+    int[] magnitude = integerMagnitude(value);
+    double d = 0;
+    for (int i = magnitude.length - 1; i >= 0; i--)
+      d = (d * 4294967296.0) + (magnitude[i] & 0xFFFFFFFFL);
+    return integerSign(value) * d;
+  }
+
+  private int signedAdd(int s1, int[] m1, int s2, int[] m2) {
+    if (s1 == 0)
+      return mkInteger(s2, m2);
+    else if (s2 == 0)
+      return mkInteger(s1, m1);
+    else if (s1 == s2)
+      return mkInteger(s1, magnitudeAdd(m1, m2));
+    else {
+      int c = magnitudeCompare(m1, m2);
+      if (c == 0)
+        return mkInt(0);
+      else if (c > 0)
+        return mkInteger(s1, magnitudeSub(m1, m2));
+      else return mkInteger(s2, magnitudeSub(m2, m1));
+    }
+  }
+
+  public static int magnitudeLength(int[] m) {
+
+    // The number of significant limbs...
+
+    int length = m.length;
+    while (length > 0 && m[length - 1] == 0)
+      length--;
+    return length;
+  }
+
+  public static int magnitudeCompare(int[] m1, int[] m2) {
+    int l1 = magnitudeLength(m1);
+    int l2 = magnitudeLength(m2);
+    if (l1 != l2) return l1 < l2 ? -1 : 1;
+    for (int i = l1 - 1; i >= 0; i--) {
+      long d1 = m1[i] & 0xFFFFFFFFL;
+      long d2 = m2[i] & 0xFFFFFFFFL;
+      if (d1 != d2) return d1 < d2 ? -1 : 1;
+    }
+    return 0;
+  }
+
+  public static int[] magnitudeAdd(int[] m1, int[] m2) {
+    int[] result = new int[Math.max(m1.length, m2.length) + 1];
+    long carry = 0;
+    for (int i = 0; i < result.length - 1; i++) {
+      long sum = carry;
+      if (i < m1.length) sum += m1[i] & 0xFFFFFFFFL;
+      if (i < m2.length) sum += m2[i] & 0xFFFFFFFFL;
+      result[i] = (int) sum;
+      carry = sum >>> 32;
+    }
+    result[result.length - 1] = (int) carry;
+    return result;
+  }
+
+  public static int[] magnitudeSub(int[] m1, int[] m2) {
+
+    // Assumes that m1 >= m2...
+
+    int[] result = new int[m1.length];
+    long borrow = 0;
+    for (int i = 0; i < m1.length; i++) {
+      long diff = (m1[i] & 0xFFFFFFFFL) - borrow;
+      if (i < m2.length) diff -= m2[i] & 0xFFFFFFFFL;
+      result[i] = (int) diff;
+      borrow = diff < 0 ? 1 : 0;
+    }
+    return result;
+  }
+
+  public static int[] magnitudeMul(int[] m1, int[] m2) {
+    int[] result = new int[m1.length + m2.length];
+    for (int i = 0; i < m1.length; i++) {
+      long carry = 0;
+      long d1 = m1[i] & 0xFFFFFFFFL;
+      for (int j = 0; j < m2.length; j++) {
+        long product = (d1 * (m2[j] & 0xFFFFFFFFL)) + (result[i + j] & 0xFFFFFFFFL) + carry;
+        result[i + j] = (int) product;
+        carry = product >>> 32;
+      }
+      result[i + m2.length] = (int) carry;
+    }
+    return result;
   }
 
   public int bufAsString(int buffer) {
@@ -2132,6 +3029,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Set the instruction at the given index...
 
     set(ptr(word) + index + 1, value);
+    invalidateDecodedInstrs();
   }
 
   public String codeToString(int word) {
@@ -2141,7 +3039,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     String s = "Code(";
     for (int i = 0; i < codeLength(word); i++) {
-      s = s + tag(codeRef(word, i));
+      s = s + byte4(codeRef(word, i));
       if ((i + 1) < codeLength(word)) s = s + ",";
     }
     return s + ")";
@@ -2211,6 +3109,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Set the code vector in the code box...
 
     set(ptr(codeBox) + 2, instrs);
+    invalidateDecodedInstrs();
   }
 
   public void codeBoxSetName(int codeBox, int name) {
@@ -2283,7 +3182,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Take the head of a pair...
 
-    return words[cons & DATA];
+    return words.get(ptr(cons));
   }
 
   public int consLength(int l) {
@@ -2330,7 +3229,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Return the tail of a pair..
 
-    return words[(cons & DATA) + 1];
+    return words.get(ptr(cons) + 1);
   }
 
   public String consToString(int cons, int depth) {
@@ -2571,57 +3470,53 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int floatAdd(int f1, int f2) {
-    return mkFloat(Float.toString(Float.parseFloat(valueToString(f1)) + Float.parseFloat(valueToString(f2))));
+    return mkFloat(asFloat(f1) + asFloat(f2));
   }
 
   public int floatDiv(int f1, int f2) {
-    return mkFloat(Float.toString(Float.parseFloat(valueToString(f1)) / Float.parseFloat(valueToString(f2))));
+    return mkFloat(asFloat(f1) / asFloat(f2));
   }
 
   public int floatFloor(int f) {
-    return mkInt((int) Math.floor(Double.parseDouble(valueToString(f))));
+    return mkInt((int) Math.floor(asFloat(f)));
   }
 
   public boolean floatGreater(int f1, int f2) {
-    float float1 = Float.parseFloat(valueToString(f1));
-    float float2 = Float.parseFloat(valueToString(f2));
-    return float1 > float2;
+    return asFloat(f1) > asFloat(f2);
   }
 
   public boolean floatLess(int f1, int f2) {
-    float float1 = Float.parseFloat(valueToString(f1));
-    float float2 = Float.parseFloat(valueToString(f2));
-    return float1 < float2;
+    return asFloat(f1) < asFloat(f2);
   }
 
   public int floatMul(int f1, int f2) {
-    return mkFloat(Float.toString(Float.parseFloat(valueToString(f1)) * Float.parseFloat(valueToString(f2))));
+    return mkFloat(asFloat(f1) * asFloat(f2));
   }
 
   public int floatRound(int f) {
-    return mkInt((int) Math.round(Double.parseDouble(valueToString(f))));
-  }
-
-  public void floatSetString(int f, int str) {
-    set(ptr(f), str);
+    return mkInt(Math.round(asFloat(f)));
   }
 
   public int floatSqrt(int f) {
-    float float1 = Float.parseFloat(valueToString(f));
-    float float2 = (float) Math.sqrt((double) float1);
-    return mkFloat("" + float2);
-  }
-
-  public int floatString(int f) {
-    return ref(ptr(f));
+    return mkFloat((float) Math.sqrt((double) asFloat(f)));
   }
 
   public int floatSub(int f1, int f2) {
-    return mkFloat(Float.toString(Float.parseFloat(valueToString(f1)) - Float.parseFloat(valueToString(f2))));
+    return mkFloat(asFloat(f1) - asFloat(f2));
   }
 
   public String floatToString(int f) {
-    return valueToString(floatString(f));
+    return Float.toString(asFloat(f));
+  }
+
+  public boolean isLegacyFloat(int f) {
+
+    // Images saved before floats were unboxed contain single word
+    // float cells that point to the string representation of the
+    // float. These are decoded on demand and replaced with native
+    // floats when the heap is next collected...
+
+    return tag(ref(ptr(f))) != FLOATBITS;
   }
 
   public ForeignFun foreignFun(int index) {
@@ -2682,11 +3577,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int forwardRefListeners(int ref) {
-    return ref(value(ref) + 2);
+    return ref(ptr(ref) + 2);
   }
 
   public int forwardRefPath(int ref) {
-    return ref(value(ref));
+    return ref(ptr(ref));
   }
 
   public int forwardRefs() {
@@ -2694,19 +3589,19 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void forwardRefSetListeners(int ref, int listeners) {
-    set(value(ref) + 2, listeners);
+    set(ptr(ref) + 2, listeners);
   }
 
   public void forwardRefSetPath(int ref, int path) {
-    set(value(ref), path);
+    set(ptr(ref), path);
   }
 
   public void forwardRefSetValue(int ref, int value) {
-    set(value(ref) + 1, value);
+    set(ptr(ref) + 1, value);
   }
 
   public int forwardRefValue(int ref) {
-    return ref(value(ref) + 1);
+    return ref(ptr(ref) + 1);
   }
 
   public int funArity(int fun) {
@@ -3095,7 +3990,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     int hasAtt = objAttribute(obj, attributeName(att));
     if (hasAtt != -1)
       attributeSetValue(hasAtt, attributeValue(att));
-    else objSetAttributes(obj, mkCons(att, objAttributes(obj)));
+    else set(ptr(obj) + 1, mkCons(att, objAttributes(obj)));
   }
 
   public void objAddAttribute(int obj, int name, int value) {
@@ -3116,14 +4011,20 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     int atts = objAttributes(obj);
     int att = 0;
+    int index = 0;
     boolean found = false;
     while (atts != nilValue && !found) {
       att = consHead(atts);
       if (equalValues(attributeName(att), name))
         found = true;
-      else atts = consTail(atts);
+      else {
+        atts = consTail(atts);
+        index++;
+      }
     }
     if (found) {
+      foundAttribute = att;
+      foundAttributeIndex = index;
       int attVis = attributeVisibility(att);
       if (attVis == PUBLIC_VISIBILITY) {
         return att;
@@ -3266,9 +4167,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public void objSetAttributes(int obj, int attributes) {
 
-    // set the list of attributes in an object...
+    // set the list of attributes in an object. The slot caches may
+    // refer to attributes that are no longer in the list...
 
     set(ptr(obj) + 1, attributes);
+    invalidateSlotCaches();
   }
 
   public int objSetAttValue(int obj, int name, int value) {
@@ -3340,6 +4243,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     if (bool)
       objSetProperties(obj, mkInt(setBit(propertyMask, OBJ_DEFAULT_GET_MOP, 1)));
     else objSetProperties(obj, mkInt(setBit(propertyMask, OBJ_DEFAULT_GET_MOP, 0)));
+    invalidateSlotCaches();
   }
 
   public void objSetDefaultSendMOP(int obj, boolean bool) {
@@ -3358,6 +4262,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     if (bool)
       objSetProperties(obj, mkInt(setBit(propertyMask, OBJ_DEFAULT_SEND_MOP, 1)));
     else objSetProperties(obj, mkInt(setBit(propertyMask, OBJ_DEFAULT_SEND_MOP, 0)));
+    invalidateSendCaches();
   }
 
   public void objSetDefaultSetMOP(int obj, boolean bool) {
@@ -3377,6 +4282,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     if (bool)
       objSetProperties(obj, mkInt(setBit(propertyMask, OBJ_DEFAULT_SET_MOP, 1)));
     else objSetProperties(obj, mkInt(setBit(propertyMask, OBJ_DEFAULT_SET_MOP, 0)));
+    invalidateSlotCaches();
   }
 
   public void objSetHotLoad(int obj, int bool) {
@@ -3698,22 +4604,26 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int stringHashCode(CharSequence string) {
 
-    // A hash-code for a string adds up the character codes...
+    // A hash-code for a string is the 32 bit FNV-1a hash of the
+    // character codes folded into the data field of a machine
+    // word. It must agree with stringHashCode(int) since Java
+    // strings are used to look up symbols...
 
-    int hashCode = 0;
+    int hashCode = FNV_OFFSET_BASIS;
     for (int i = 0; i < string.length(); i++)
-      hashCode = hashCode + string.charAt(i);
-    return hashCode;
+      hashCode = (hashCode ^ string.charAt(i)) * FNV_PRIME;
+    return (hashCode ^ (hashCode >>> 24)) & DATA;
   }
 
   public int stringHashCode(int string) {
 
-    // A hash-code for a string adds up the character codes...
+    // See stringHashCode(CharSequence)...
 
-    int hashCode = 0;
-    for (int i = 0; i < stringLength(string); i++)
-      hashCode = hashCode + stringRef(string, i);
-    return hashCode;
+    int hashCode = FNV_OFFSET_BASIS;
+    int length = stringLength(string);
+    for (int i = 0; i < length; i++)
+      hashCode = (hashCode ^ stringRef(string, i)) * FNV_PRIME;
+    return (hashCode ^ (hashCode >>> 24)) & DATA;
   }
 
   public boolean stringIncludes(int string, int c) {
@@ -3761,6 +4671,19 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     return (chars & mask) >>> charIndex;
   }
 
+  public void stringBytes(int word, int index, byte[] bytes, int length) {
+
+    // Copy length characters of the string starting at 'index' into
+    // the bytes. Each word of the string is read once...
+
+    int ptr = ptr(word) + 1;
+    int chars = 0;
+    for (int i = 0; i < length; i++, index++) {
+      if (i == 0 || index % 4 == 0) chars = ref(ptr + (index / 4));
+      bytes[i] = (byte) (chars >>> ((index % 4) * 8));
+    }
+  }
+
   public void stringSet(int word, int index, int value) {
 
     // Update the character at position 'index' with the
@@ -3852,9 +4775,15 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Empty the table...
 
-    int size = arrayLength(table);
-    for (int i = 0; i < size; i++)
-      arraySet(table, i, nilValue);
+    if (isOpenTable(table)) {
+      openTableClear(openTableStorage(table));
+      openTableSetCount(table, 0);
+      openTableSetDeleted(table, 0);
+    } else {
+      int size = arrayLength(table);
+      for (int i = 0; i < size; i++)
+        arraySet(table, i, nilValue);
+    }
   }
 
   public int hashTableContents(int table) {
@@ -3862,6 +4791,13 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Construct a set of all the values in the table...
 
     int set = emptySet;
+    if (isOpenTable(table)) {
+      int storage = openTableStorage(table);
+      int capacity = openTableCapacity(table);
+      for (int i = 0; i < capacity; i++)
+        if (openTableIsUsed(storage, i)) set = setIncluding(set, openTableValue(storage, i));
+      return set;
+    }
     int length = arrayLength(table);
     for (int i = 0; i < length; i++) {
       int bucket = arrayRef(table, i);
@@ -3879,6 +4815,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Get the value of the key in the table. Return -1 if
     // the key does not exist...
 
+    if (isOpenTable(table)) {
+      int slot = openTableSlot(table, key);
+      return slot == -1 ? -1 : openTableValue(openTableStorage(table), slot);
+    }
     int cell = hashTableGetCell(table, key);
     if (cell == -1)
       return -1;
@@ -3890,6 +4830,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Get the valueof the key in the table. Return -1 if
     // the key does not exist...
 
+    if (isOpenTable(table)) {
+      int slot = openTableSlot(table, key);
+      return slot == -1 ? -1 : openTableValue(openTableStorage(table), slot);
+    }
     int cell = hashTableGetCell(table, key);
     if (cell == -1)
       return -1;
@@ -3938,6 +4882,13 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Return true when the table contains the value...
 
+    if (isOpenTable(table)) {
+      int storage = openTableStorage(table);
+      int capacity = openTableCapacity(table);
+      for (int i = 0; i < capacity; i++)
+        if (openTableIsUsed(storage, i) && equalValues(openTableValue(storage, i), value)) return true;
+      return false;
+    }
     int length = arrayLength(table);
     for (int i = 0; i < length; i++) {
       int bucket = arrayRef(table, i);
@@ -3971,10 +4922,25 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     return hashCode(key) % arrayLength(table);
   }
 
+  public int hashTableSize(int table) {
+
+    // Return the number of entries in the table. Open tables keep a
+    // count in the header. The buckets of a chained table are modified
+    // directly by XOCL code so the entries must be counted...
+
+    if (isOpenTable(table)) return openTableCount(table);
+    int count = 0;
+    int size = arrayLength(table);
+    for (int i = 0; i < size; i++)
+      count = count + consLength(arrayRef(table, i));
+    return count;
+  }
+
   public boolean hashTableIsEmpty(int table) {
 
     // Return true when the table is empty...
 
+    if (isOpenTable(table)) return openTableCount(table) == 0;
     boolean isEmpty = true;
     int size = arrayLength(table);
     for (int i = 0; i < size && isEmpty; i++)
@@ -3987,6 +4953,13 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Return a sequence of all the keys in the table...
 
     int keys = nilValue;
+    if (isOpenTable(table)) {
+      int storage = openTableStorage(table);
+      int capacity = openTableCapacity(table);
+      for (int i = 0; i < capacity; i++)
+        if (openTableIsUsed(storage, i)) keys = mkCons(openTableKey(storage, i), keys);
+      return keys;
+    }
     int length = arrayLength(table);
     for (int i = 0; i < length; i++) {
       int bucket = arrayRef(table, i);
@@ -4004,6 +4977,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Update the value of a key in the table...
 
+    rememberTable(table, key);
+    if (isOpenTable(table)) {
+      openTablePut(table, key, value);
+      return;
+    }
     int cell = hashTableGetCell(table, key);
     if (cell == -1) {
       int newCell = mkCons(key, value);
@@ -4020,6 +4998,17 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Delete a key from the table...
 
+    if (isOpenTable(table)) {
+      int slot = openTableSlot(table, key);
+      if (slot != -1) {
+        int storage = openTableStorage(table);
+        set(openTableKeyPtr(storage, slot), deletedKeyValue);
+        set(openTableKeyPtr(storage, slot) + 1, undefinedValue);
+        openTableSetCount(table, openTableCount(table) - 1);
+        openTableSetDeleted(table, openTableDeleted(table) + 1);
+      }
+      return table;
+    }
     int length = arrayLength(table);
     for (int i = 0; i < length; i++) {
       int bucket = arrayRef(table, i);
@@ -4039,6 +5028,12 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Return the table as a Java string...
 
+    if (isOpenTable(table)) {
+      int capacity = openTableCapacity(table);
+      int entries = openTableCount(table);
+      int percentFull = (int) (((double) (entries + openTableDeleted(table)) / (double) capacity) * 100);
+      return "<Table capacity = " + capacity + " entries = " + entries + " deleted = " + openTableDeleted(table) + " full = " + percentFull + "%>";
+    }
     String s = "<Table ";
     int length = arrayLength(table);
     int entries = 0;
@@ -4222,11 +5217,18 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Copy a hash table but not the elements in
     // the table...
 
+    if (isOpenTable(table)) {
+      int copy = mkOpenHashtable(0);
+      set(ptr(copy) + 5, copyArray(openTableStorage(table)));
+      openTableSetCount(copy, openTableCount(table));
+      openTableSetDeleted(copy, openTableDeleted(table));
+      return copy;
+    }
     int copy = copyArray(table);
     int length = arrayLength(table);
     for (int i = 0; i < length; i++)
       arraySet(copy, i, copyHashTableBucket(arrayRef(copy, i)));
-    return mkPtr(HASHTABLE, copy);
+    return mkPtr(HASHTABLE, ptr(copy));
   }
 
   public int copyHashTableBucket(int bucket) {
@@ -4238,7 +5240,8 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public int copyObj(int obj) {
 
     // Copy the slot storage for an object but not the
-    // values in the slots...
+    // values in the slots. The new object is not in any
+    // slot cache so its attributes are set directly...
 
     int atts = objAttributes(obj);
     int newObj = mkObj(objType(obj));
@@ -4248,7 +5251,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       newAtts = mkCons(att, newAtts);
       atts = consTail(atts);
     }
-    objSetAttributes(newObj, newAtts);
+    set(ptr(newObj) + 1, newAtts);
     return newObj;
   }
 
@@ -4265,10 +5268,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public boolean equalFloats(int f1, int f2) {
 
-    // Two floats are equal when their string representations
-    // are equal...
+    // Two floats are equal when they have the same bits. This
+    // is the same as comparing their string representations
+    // (NaN = NaN and 0.0 <> -0.0)...
 
-    return valueToString(f1).equals(valueToString(f2));
+    return Float.floatToIntBits(asFloat(f1)) == Float.floatToIntBits(asFloat(f2));
   }
 
   public boolean equalNumbers(int n1, int n2) {
@@ -4277,10 +5281,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     if (isFloat(n1) && isFloat(n2)) return equalFloats(n1, n2);
     if (isInt(n1) && isInt(n2)) return n1 == n2;
-    if (isFloat(n1) && isInt(n2)) return equalFloats(n1, mkFloat(n2, 0));
-    if (isInt(n1) && isFloat(n2)) return equalFloats(mkFloat(n1, 0), n2);
-    if (isBigInt(n1) && isNum(n2)) return asBigInteger(n1).compareTo(ensureBigInt(n2)) == 0;
-    if (isNum(n1) && isBigInt(n2)) return ensureBigInt(n1).compareTo(asBigInteger(n2)) == 0;
+    if (isFloat(n1) && isInt(n2)) return asFloat(n1) == intValue(n2);
+    if (isInt(n1) && isFloat(n2)) return intValue(n1) == asFloat(n2);
+    if (isBigInt(n1) && isNum(n2)) return bigIntCompare(n1, n2) == 0;
+    if (isNum(n1) && isBigInt(n2)) return bigIntCompare(n1, n2) == 0;
     return false;
   }
 
@@ -4376,7 +5380,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // called by two different Java threads (for example by the
     // client calling mechanism scheduling an XMF thread).
 
+    Thread thread = threads;
+    int instrs = instrsPerformed;
     yield = false;
+    preempted = false;
+    sliceEnd = instrsPerformed + (quantum > 0 ? quantum : Integer.MAX_VALUE);
     while (!terminatedThread() && !yield)
       try {
         performInstrs();
@@ -4397,6 +5405,30 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         // best we can...
         handleThrow(throwable);
       }
+    thread.performed(instrsPerformed - instrs, preempted);
+  }
+
+  public boolean sliceExpired() {
+
+    // True when the current thread has performed its quantum. Without a
+    // quantum the slice is simply extended...
+
+    if (quantum > 0) return true;
+    sliceEnd = instrsPerformed + Integer.MAX_VALUE;
+    return false;
+  }
+
+  public boolean preempted() {
+    return preempted;
+  }
+
+  public void preempt() {
+
+    // The current thread has performed its quantum. It yields and
+    // is scheduled behind the other threads...
+
+    preempted = true;
+    this.yield();
   }
 
   public void handleArrayException() {
@@ -4433,6 +5465,18 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // and the various calls have been expanded. In most cases the
     // original calls to instruction implementations have been left as
     // comments.
+    //
+    // Instructions are fetched from a decoded copy of the code box
+    // (see decodeLine) with the code index held in the pc register.
+    // Instructions that only refer to the stack and the current frame
+    // are performed in an inner loop without writing the code index
+    // back to the frame. Any other instruction leaves the inner loop
+    // and is performed by the main switch once the pc has been saved
+    // in the frame, so that calls, returns, yields, garbage collection
+    // and the debugger see the frame as they always have. When the
+    // code box has been compiled (see countCall) the compiled code
+    // performs as many instructions as it can before the inner loop
+    // takes over.
 
     // Registers...
 
@@ -4440,29 +5484,231 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     int tag;
     int R0;
     int R1;
+    int frame;
+    int codeBox = -1;
+    int codeEpoch = 0;
+    int codeCompiles = 0;
+    int[] code = null;
+    CompiledCode compiled = null;
+    int[] stack;
+    int pc;
 
-    while (currentFrame != -1 && !yield) {
+    perform: while (currentFrame != -1 && !yield) {
 
       // Get the next instruction. Perform any debugging and then
       // dispatch to an instruction routine based on the type tag
       // of the instruction.
 
+      if (jitCheck && checkFrame != -1) checkCompiled(currentFrame, valueStack.elements[currentFrame + FRAMECODEINDEX] & DATA, instrsPerformed);
       if (interrupt) interrupt();
+      if (instrsPerformed - sliceEnd >= 0 && sliceExpired()) {
+        preempt();
+        continue perform;
+      }
+
+      // Load the registers from the current frame. The decoded code
+      // is only looked up when the frame is performing a different
+      // code box or the code has changed...
+
+      frame = currentFrame;
+      stack = valueStack.elements;
+      R0 = stack[frame + FRAMECODEBOX];
+      if (R0 != codeBox || codeEpoch != decodeEpoch || codeCompiles != compileEpoch) {
+        R1 = decodeLine(R0);
+        code = decodedCode[R1];
+        compiled = decodedCompiled[R1];
+        codeBox = R0;
+        codeEpoch = decodeEpoch;
+        codeCompiles = compileEpoch;
+      }
+      pc = stack[frame + FRAMECODEINDEX] & DATA;
+      if (compiled != null) {
+        if (jitCheck)
+          startCheck(compiled, code, frame, pc);
+        else {
+          compiled.budget = sliceEnd - instrsPerformed;
+          pc = compiled.perform(words.array(), stack, frame, pc, valueStack.index);
+          valueStack.index = compiled.sp;
+          instrsPerformed += compiled.performed;
+        }
+      }
+
+      decoded: while (true) {
+
+        instr = code[pc++];
+        instrsPerformed++;
+        if (profileInstrs) profileInstr(instr >>> 24);
+
+        switch (instr >>> 24) {
+
+          case PUSHINT:
+            stack[valueStack.index++] = INT_MASK | (instr & DATA);
+            continue;
+          case PUSHTRUE:
+            stack[valueStack.index++] = trueValue;
+            continue;
+          case PUSHFALSE:
+            stack[valueStack.index++] = falseValue;
+            continue;
+          case NULL:
+            stack[valueStack.index++] = undefinedValue;
+            continue;
+          case PUSHSTR:
+          case CONST:
+            stack[valueStack.index++] = words.get(ptr(words.get(ptr(codeBox) + 1)) + (instr & DATA) + 3);
+            continue;
+          case LOCAL:
+            stack[valueStack.index++] = stack[frame + FRAMELOCAL0 + (instr & DATA)];
+            continue;
+          case LOCALREFPOS:
+            stack[valueStack.index++] = stack[frame + FRAMELOCAL0 + byte3(instr)];
+            stack[frame + FRAMELINECOUNT] = INT_MASK | ((byte2(instr) << 8) | byte1(instr));
+            stack[frame + FRAMECHARCOUNT] = INT_MASK;
+            continue;
+          case SETLOC:
+            stack[frame + FRAMELOCAL0 + (instr & DATA)] = stack[valueStack.index - 1];
+            continue;
+          case SETLOCPOP:
+            stack[frame + FRAMELOCAL0 + (instr & DATA)] = stack[--valueStack.index];
+            continue;
+          case SELF:
+            stack[valueStack.index++] = stack[frame + FRAMESELF];
+            continue;
+          case POP:
+            valueStack.index--;
+            continue;
+          case NOOP:
+          case SOURCEPOS:
+            continue;
+          case SKP:
+            pc += instr & DATA;
+            continue;
+          case SKPF:
+            R0 = stack[valueStack.index - 1];
+            if (R0 == falseValue) {
+              valueStack.index--;
+              pc += instr & DATA;
+              continue;
+            }
+            if (R0 == trueValue) {
+              valueStack.index--;
+              continue;
+            }
+            break decoded;
+          case SKPBACK:
+            // A backward jump is the only way round a loop of inlined
+            // instructions so check for interrupts and preemption here...
+            pc -= (instr & DATA) + 1;
+            if (interrupt || instrsPerformed - sliceEnd >= 0) {
+              stack[frame + FRAMECODEINDEX] = pc;
+              continue perform;
+            }
+            continue;
+          case LOCALHEAD:
+            R0 = stack[frame + FRAMELOCAL0 + (instr & DATA)];
+            if (tag(R0) != CONS) break decoded;
+            stack[valueStack.index++] = words.get(ptr(R0));
+            continue;
+          case LOCALTAIL:
+            R0 = stack[frame + FRAMELOCAL0 + (instr & DATA)];
+            if (tag(R0) != CONS) break decoded;
+            stack[valueStack.index++] = words.get(ptr(R0) + 1);
+            continue;
+          case LOCALISEMPTY:
+            R0 = stack[frame + FRAMELOCAL0 + (instr & DATA)];
+            if (R0 == nilValue)
+              stack[valueStack.index++] = trueValue;
+            else if (tag(R0) == CONS)
+              stack[valueStack.index++] = falseValue;
+            else break decoded;
+            continue;
+          case INCLOCAL:
+            R0 = stack[frame + FRAMELOCAL0 + (instr & DATA)];
+            if ((R0 >> 24) != INT || (R0 & DATA) == MAXINT) break decoded;
+            stack[frame + FRAMELOCAL0 + (instr & DATA)] = R0 + 1;
+            stack[valueStack.index++] = R0 + 1;
+            continue;
+          case LOCALDOT:
+          case SELFSEND:
+            // Superinstructions that are performed by the switch below
+            // and continue after the second instruction of the pair...
+            pc++;
+            break decoded;
+          case PUSHINTADD:
+          case PUSHINTSUB:
+            R0 = stack[valueStack.index - 1];
+            if ((R0 >> 24) != INT && (R0 >> 24) != NEGINT) break decoded;
+            R0 = (R0 >> 24) == INT ? (R0 & DATA) : -(R0 & DATA);
+            R0 = (instr >>> 24) == PUSHINTADD ? R0 + (instr & DATA) : R0 - (instr & DATA);
+            if (R0 > MAXINT || R0 < -MAXINT) break decoded;
+            stack[valueStack.index - 1] = R0 < 0 ? NEGINT_MASK | -R0 : INT_MASK | R0;
+            pc++;
+            continue;
+          case EQLSKPF:
+          case LESSSKPF:
+          case GRESKPF:
+            R1 = stack[valueStack.index - 1];
+            R0 = stack[valueStack.index - 2];
+            if (((R0 >> 24) != INT && (R0 >> 24) != NEGINT) || ((R1 >> 24) != INT && (R1 >> 24) != NEGINT)) break decoded;
+            R0 = (R0 >> 24) == INT ? (R0 & DATA) : -(R0 & DATA);
+            R1 = (R1 >> 24) == INT ? (R1 & DATA) : -(R1 & DATA);
+            valueStack.index -= 2;
+            pc++;
+            switch (instr >>> 24) {
+              case EQLSKPF:
+                if (R0 != R1) pc += instr & DATA;
+                continue;
+              case LESSSKPF:
+                if (R0 >= R1) pc += instr & DATA;
+                continue;
+              default:
+                if (R0 <= R1) pc += instr & DATA;
+                continue;
+            }
+          case ADD:
+          case SUB:
+          case LESS:
+          case GRE:
+          case EQL:
+            // Integer arithmetic and comparison that cannot overflow
+            // into a big integer...
+            R1 = stack[valueStack.index - 1];
+            R0 = stack[valueStack.index - 2];
+            if (((R0 >> 24) != INT && (R0 >> 24) != NEGINT) || ((R1 >> 24) != INT && (R1 >> 24) != NEGINT)) break decoded;
+            R0 = (R0 >> 24) == INT ? (R0 & DATA) : -(R0 & DATA);
+            R1 = (R1 >> 24) == INT ? (R1 & DATA) : -(R1 & DATA);
+            switch (instr >>> 24) {
+              case ADD:
+                R0 = R0 + R1;
+                if (R0 > MAXINT || R0 < -MAXINT) break decoded;
+                R0 = R0 < 0 ? NEGINT_MASK | -R0 : INT_MASK | R0;
+                break;
+              case SUB:
+                R0 = R0 - R1;
+                if (R0 > MAXINT || R0 < -MAXINT) break decoded;
+                R0 = R0 < 0 ? NEGINT_MASK | -R0 : INT_MASK | R0;
+                break;
+              case LESS:
+                R0 = R0 < R1 ? trueValue : falseValue;
+                break;
+              case GRE:
+                R0 = R0 > R1 ? trueValue : falseValue;
+                break;
+              default:
+                R0 = R0 == R1 ? trueValue : falseValue;
+            }
+            stack[(--valueStack.index) - 1] = R0;
+            continue;
+          default:
+            break decoded;
+        }
+      }
 
-      // Fetch an instruction and dispatch on the instruction tag.
-      // The following single call has been macro-expanded to the
-      // several lines of code that follow. Change back if ever
-      // the format of stack frames changes; re-macro-expand if
-      // necessary,
-      //
-      // int instr = fetchInstr();
-      // ...
-      // switch (tag(instr)) {
-
-      R0 = valueStack.elements[currentFrame + FRAMECODEINDEX] & DATA;
-      valueStack.elements[currentFrame + FRAMECODEINDEX] = (valueStack.elements[currentFrame + FRAMECODEINDEX] + 1) & DATA;
-      instrsPerformed++;
-      instr = words[(words[(valueStack.elements[currentFrame + FRAMECODEBOX] & PTR) + 2] & PTR) + R0 + 1];
+      // The instruction is performed with respect to the frame. Save
+      // the pc and dispatch on the instruction tag...
+
+      if (jitCheck && checkFrame != -1) checkCompiled(frame, decodedIndex(instr, pc), instrsPerformed - 1);
+      stack[frame + FRAMECODEINDEX] = pc;
       tag = (instr & BYTE4) >>> 24;
 
       switch (tag) {
@@ -4493,7 +5739,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           break;
         case PUSHSTR:
           // Push a string found in the constants box...
-          R0 = words[(valueStack.elements[currentFrame + FRAMECODEBOX] & DATA) + 1];
+          R0 = words.get(ptr(valueStack.elements[currentFrame + FRAMECODEBOX]) + 1);
           valueStack.elements[valueStack.index++] = arrayRef(R0, instr & DATA);
           break;
         case RETURN:
@@ -4548,7 +5794,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         case DOT:
           // Field reference. Object is at the TOS, name
           // is in frame constants...
-          dot(frameConstant(value(instr)));
+          dot(frameConstant(value(instr)), valueStack.pop(), instrSite());
           break;
         case SELF:
           // The current target of the message in the
@@ -4610,29 +5856,29 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           break;
         case SEND:
           // Send the object at the top of the stack a message...
-          send(popStack(), byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)));
+          send(popStack(), byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)), instrSite());
           break;
         case SENDSELF:
           // Send self a message...
-          send(frameSelf(), byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)));
+          send(frameSelf(), byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)), instrSite());
           break;
         case SENDLOCAL:
           // Send a local a message...
-          send(frameLocal(byte1(instr)), byte3(instr), frameConstant(byte2(instr)));
+          send(frameLocal(byte1(instr)), byte3(instr), frameConstant(byte2(instr)), instrSite());
           break;
         case TAILSEND:
           // Send the object at the top of the stack a tail message...
-          tailSend(byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)));
+          tailSend(byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)), instrSite());
           break;
         case SEND0:
           // Send the object at the top of the stack a message with 0
           // args...
-          send0(frameConstant(value(instr)));
+          send0(frameConstant(value(instr)), instrSite());
           break;
         case TAILSEND0:
           // Send the object at the top of the stack a tail message with 0
           // args...
-          tailSend0(frameConstant(value(instr)));
+          tailSend(0, frameConstant(value(instr)), instrSite());
           break;
         case POP:
           // Pop the TOS...
@@ -4645,7 +5891,8 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           break;
         case SETSLOT:
           // Set the value of the named attribute to be the TOS value...
-          setSlot(frameConstant(value(instr)));
+          R0 = valueStack.pop();
+          setSlot(R0, frameConstant(value(instr)), valueStack.pop(), instrSite());
           break;
         case SETGLOB:
           // Set the value of the global to be the TOS value...
@@ -4867,7 +6114,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           // Equivalent to not S->isEmpty...
           // isNotEmpty();
           R0 = valueStack.elements[--valueStack.index];
-          R1 = (R0 >> 24);
+          R1 = tag(R0);
           switch (R1) {
             case CONS:
             case NIL:
@@ -4890,7 +6137,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           // Refer to a local variable value in the current stack
           // frame and push head...
           R0 = valueStack.elements[currentFrame + FRAMELOCAL0 + (instr & DATA)];
-          switch (R0 >> 24) {
+          switch (tag(R0)) {
             case NIL:
               throw new MachineError(TYPE, "Cannot take the head of Seq{}", nilValue, theTypeSeqOfElement);
             case CONS:
@@ -4906,7 +6153,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           // and push tail...
           // pushTail(frameLocal(value(instr)));
           R0 = valueStack.elements[currentFrame + FRAMELOCAL0 + (instr & DATA)];
-          switch (R0 >> 24) {
+          switch (tag(R0)) {
             case NIL:
               throw new MachineError(TYPE, "Cannot take the tail of Seq{}", nilValue, theTypeSeqOfElement);
             case CONS:
@@ -4925,7 +6172,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           // Push whether the local is empty...
           // pushIsEmpty(frameLocal(value(instr)));
           R0 = valueStack.elements[currentFrame + FRAMELOCAL0 + (instr & DATA)];
-          switch (R0 >> 24) {
+          switch (tag(R0)) {
             case CONS:
             case NIL:
               valueStack.elements[valueStack.index++] = (R0 == nilValue ? trueValue : falseValue);
@@ -4946,19 +6193,19 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         case DOTSELF:
           // Reference the slot via self...
           // dot(frameConstant(instr & DATA), frameSelf());
-          dot(frameConstant(instr & DATA), valueStack.elements[currentFrame + FRAMESELF]);
+          dot(frameConstant(instr & DATA), valueStack.elements[currentFrame + FRAMESELF], instrSite());
           break;
         case DOTLOCAL:
           // Reference a slot of a local...
-          dot(frameConstant(byte2(instr) << 8 | byte1(instr)), frameLocal(byte3(instr)));
+          dot(frameConstant(byte2(instr) << 8 | byte1(instr)), frameLocal(byte3(instr)), instrSite());
           break;
         case SETLOCALSLOT:
           // Update the value of a slot in a local...
-          setSlot(frameLocal(byte3(instr)), frameConstant(byte2(instr) << 8 | byte1(instr)), valueStack.pop());
+          setSlot(frameLocal(byte3(instr)), frameConstant(byte2(instr) << 8 | byte1(instr)), valueStack.pop(), instrSite());
           break;
         case SETSELFSLOT:
           // Update the value of a slot in self...
-          setSlot(frameSelf(), frameConstant(value(instr)), valueStack.pop());
+          setSlot(frameSelf(), frameConstant(value(instr)), valueStack.pop(), instrSite());
           break;
         case LOCALREFPOS:
           // References the local and records the line in the
@@ -5025,11 +6272,255 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
           // Check whether an element has a slot...
           hasSlot();
           break;
+        case LOCALDOT:
+          // LOCAL then DOT. The code index is after the DOT...
+          dot(frameConstant(byte2(instr) << 8 | byte1(instr)), frameLocal(byte3(instr)), instrSite());
+          break;
+        case SELFSEND:
+          // SELF then SEND. The code index is after the SEND...
+          send(frameSelf(), byte2(instr), frameConstant(byte3(instr) << 8 | byte1(instr)), instrSite());
+          break;
+        case PUSHINTADD:
+        case PUSHINTSUB:
+          // The operand is not a simple integer so push the int and
+          // perform the ADD or SUB that follows...
+          valueStack.elements[valueStack.index++] = INT_MASK | (instr & DATA);
+          break;
+        case EQLSKPF:
+          // The operands are not simple integers so perform the EQL
+          // and then the SKPF that follows...
+          eql();
+          break;
+        case LESSSKPF:
+          less();
+          break;
+        case GRESKPF:
+          gre();
+          break;
         default:
-          throw new MachineError(INSTR, "Machine.perform: unknown instruction " + tag(instr));
+          throw new MachineError(INSTR, "Machine.perform: unknown instruction " + byte4(instr));
+      }
+    }
+
+  }
+
+  private int decodeLine(int codeBox) {
+
+    // Return the line of the decode cache that holds the instructions of
+    // the code box copied out of the heap. The copy is cached against
+    // the code box and is valid until the decode epoch is advanced. Code
+    // that has been compiled is found by the decoded instructions so that
+    // it survives garbage collection...
+
+    int line = (codeBox * 0x9E3779B9) >>> (32 - DECODECACHEBITS);
+    if (decodedBoxes[line] == codeBox && decodedEpochs[line] == decodeEpoch) {
+      decodeHits++;
+      return line;
+    }
+    int[] code = decodeInstrs(codeBox);
+    decodedBoxes[line] = codeBox;
+    decodedEpochs[line] = decodeEpoch;
+    decodedCode[line] = code;
+    decodedCalls[line] = 0;
+    decodedCompiled[line] = jitThreshold > 0 && !offHeap ? compiledCode.get(IntBuffer.wrap(code)) : null;
+    decodeMisses++;
+    return line;
+  }
+
+  private int[] decodeInstrs(int codeBox) {
+
+    // Copy the instructions of the code box out of the heap...
+
+    int instrs = ptr(words.get(ptr(codeBox) + 2));
+    int[] code = new int[words.get(instrs) & DATA];
+    words.read(instrs + 1, code, 0, code.length);
+    if (!profileInstrs) fuseInstrs(code);
+    return code;
+  }
+
+  private void startCheck(CompiledCode compiled, int[] code, int frame, int pc) {
+
+    // Perform the compiled code on a copy of the frame and record where
+    // it stopped (see jitCheck). The decoded code must be the current
+    // instructions of the code box and the compiled code must be the
+    // code that was compiled from them...
+
+    int codeBox = valueStack.elements[frame + FRAMECODEBOX];
+    if (!Arrays.equals(code, decodeInstrs(codeBox)))
+      checkFailed(codeBox, pc, "the decoded code is out of date");
+    else if (compiledCode.get(IntBuffer.wrap(code)) != compiled)
+      checkFailed(codeBox, pc, "the compiled code was compiled from different instructions");
+    if (checkStack == null || checkStack.length != valueStack.elements.length) checkStack = new int[valueStack.elements.length];
+    System.arraycopy(valueStack.elements, frame, checkStack, frame, valueStack.index - frame);
+    compiled.budget = sliceEnd - instrsPerformed;
+    checkPc = compiled.perform(words.array(), checkStack, frame, pc, valueStack.index);
+    checkSp = compiled.sp;
+    checkInstrs = instrsPerformed + compiled.performed;
+    checkCollections = minorCollections + fullCollections;
+    checkFrame = compiled.performed > 0 ? frame : -1;
+    if (++jitChecks % JITCHECKINVALIDATE == 0) invalidateDecodedInstrs();
+  }
+
+  private static int decodedIndex(int instr, int pc) {
+
+    // The code index of an instruction that has left the in-lined
+    // instructions. Superinstructions that are performed by the switch
+    // have already stepped over the second instruction of the pair...
+
+    int tag = instr >>> 24;
+    return tag == LOCALDOT || tag == SELFSEND ? pc - 2 : pc - 1;
+  }
+
+  private void checkCompiled(int frame, int pc, int instrs) {
+
+    // Called when the interpreter saves the code index of a frame while
+    // a check is pending. The frames are compared when the interpreter has
+    // performed as many instructions as the compiled code. Compiled code
+    // does not save the code index in the frame so it is compared with the
+    // code index at which the compiled code stopped...
+
+    if (instrs - checkInstrs < 0) return;
+    int codeBox = valueStack.elements[checkFrame + FRAMECODEBOX];
+    if (instrs != checkInstrs || checkCollections != minorCollections + fullCollections)
+      jitChecksSkipped++;
+    else if (frame != checkFrame || pc != checkPc || valueStack.index != checkSp)
+      checkFailed(codeBox, checkPc, "the interpreter stopped at " + pc + " with " + (valueStack.index - frame) + " stack words, the compiled code with " + (checkSp - checkFrame));
+    else {
+      for (int i = checkFrame; i < checkSp; i++)
+        if (i != checkFrame + FRAMECODEINDEX && valueStack.elements[i] != checkStack[i]) {
+          checkFailed(codeBox, checkPc, "frame word " + (i - checkFrame) + " is " + valueToString(valueStack.elements[i]) + " but the compiled code left " + valueToString(checkStack[i]));
+          break;
+        }
+    }
+    checkFrame = -1;
+  }
+
+  private void checkFailed(int codeBox, int pc, String message) {
+    jitCheckFailures++;
+    System.err.println("CodeCompiler: " + valueToString(codeBox) + " at " + pc + ": " + message);
+  }
+
+  private void countCall(int codeBox) {
+
+    // Called when a code box is entered. The code box is compiled when
+    // it has been entered jitThreshold times since it was decoded...
+
+    int line = decodeLine(codeBox);
+    if (++decodedCalls[line] == jitThreshold && decodedCompiled[line] == null && !offHeap) {
+      IntBuffer key = IntBuffer.wrap(decodedCode[line]);
+      CompiledCode compiled = compiledCode.get(key);
+      if (compiled == null) {
+        compiled = codeCompiler.compile(decodedCode[line]);
+        if (compiled == null) return;
+        compiledCode.put(key, compiled);
+        codeBoxesCompiled++;
+      }
+      decodedCompiled[line] = compiled;
+      compileEpoch++;
+    }
+  }
+
+  private static void fuseInstrs(int[] code) {
+
+    // Replace the first instruction of each pair that has a superinstruction
+    // (see Instr). The second instruction is left in place since it may be
+    // the target of a skip. Pairs may overlap because a superinstruction
+    // takes both of its operands from its own word...
+
+    for (int i = 0; i + 1 < code.length; i++) {
+      int first = code[i];
+      int second = code[i + 1];
+      switch (((first >>> 24) << 8) | (second >>> 24)) {
+        case (LOCAL << 8) | DOT:
+          if ((first & DATA) <= 0xFF && (second & DATA) <= 0xFFFF) code[i] = mkImmediate(LOCALDOT, ((first & DATA) << 16) | (second & DATA));
+          break;
+        case (SELF << 8) | SEND:
+          code[i] = mkImmediate(SELFSEND, second & DATA);
+          break;
+        case (PUSHINT << 8) | ADD:
+          code[i] = mkImmediate(PUSHINTADD, first & DATA);
+          break;
+        case (PUSHINT << 8) | SUB:
+          code[i] = mkImmediate(PUSHINTSUB, first & DATA);
+          break;
+        case (EQL << 8) | SKPF:
+          code[i] = mkImmediate(EQLSKPF, second & DATA);
+          break;
+        case (LESS << 8) | SKPF:
+          code[i] = mkImmediate(LESSSKPF, second & DATA);
+          break;
+        case (GRE << 8) | SKPF:
+          code[i] = mkImmediate(GRESKPF, second & DATA);
+          break;
+      }
+    }
+  }
+
+  private void profileInstr(int tag) {
+
+    // Count the pair and the triple that end with the instruction. Tags
+    // are less than 128 so a triple fits into 21 bits...
+
+    if (instrPairs == null) {
+      instrPairs = new int[1 << 16];
+      instrTriples = new int[1 << 21];
+    }
+    instrPairs[(profiledTag1 << 8) | tag]++;
+    instrTriples[(profiledTag2 << 14) | (profiledTag1 << 7) | tag]++;
+    profiledTag2 = profiledTag1;
+    profiledTag1 = tag;
+  }
+
+  public void printInstrProfile(PrintStream out, int limit) {
+
+    // Print the most frequently performed instruction pairs and triples...
+
+    if (instrPairs == null) return;
+    out.println("Instruction pairs:");
+    printInstrCounts(out, instrPairs, 8, 2, limit);
+    out.println("Instruction triples:");
+    printInstrCounts(out, instrTriples, 7, 3, limit);
+  }
+
+  private void printInstrCounts(PrintStream out, int[] counts, int bits, int length, int limit) {
+
+    // Print the largest counts. Each sequence is encoded as an index
+    // with a field of bits for each instruction tag...
+
+    counts = counts.clone();
+    for (int i = 0; i < limit; i++) {
+      int max = 0;
+      for (int index = 1; index < counts.length; index++)
+        if (counts[index] > counts[max]) max = index;
+      if (counts[max] == 0) return;
+      String sequence = "";
+      for (int n = length - 1; n >= 0; n--)
+        sequence = sequence + " " + instrName((max >>> (n * bits)) & ((1 << bits) - 1));
+      out.println("  " + counts[max] + sequence);
+      counts[max] = 0;
+    }
+  }
+
+  public static String instrName(int tag) {
+
+    // The name of the instruction with the tag. Obsolete names share
+    // their tags with current instructions and are defined after them...
+
+    for (Field field : Instr.class.getFields()) {
+      try {
+        if (field.getInt(null) == tag) return field.getName();
+      } catch (IllegalAccessException e) {
       }
     }
+    return Integer.toString(tag);
+  }
+
+  public void invalidateDecodedInstrs() {
 
+    // Called when instructions are changed or when the heap addresses
+    // of the code boxes are no longer valid...
+
+    decodeEpoch++;
   }
 
   public void hasSlot() {
@@ -5186,7 +6677,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       return;
     }
     if (isNum(v1) && isNum(v2)) {
-      valueStack.push(asBigInt(ensureBigInt(v1).add(ensureBigInt(v2))));
+      valueStack.push(bigIntAdd(v1, v2));
       return;
     }
     if (isSymbol(v1)) {
@@ -5287,12 +6778,8 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       valueStack.push(mulInts(v1IsNegInt ^ v2IsNegInt, value(v1), value(v2)));
     else if (isFloat(v1) && isFloat(v2))
       valueStack.push(floatMul(v2, v1));
-    else if (isBigInt(v1) && isBigInt(v2))
-      valueStack.push(asBigInt(asBigInteger(v1).multiply(asBigInteger(v2))));
-    else if (isBigInt(v1) && (v2IsInt || v2IsNegInt))
-      valueStack.push(asBigInt(asBigInteger(v1).multiply(asBigInteger(mkBigInt(intValue(v2))))));
-    else if ((v1IsInt || v1IsNegInt) && isBigInt(v2))
-      valueStack.push(asBigInt(asBigInteger(mkBigInt(intValue(v1))).multiply(asBigInteger(v2))));
+    else if ((isBigInt(v1) || v1IsInt || v1IsNegInt) && (isBigInt(v2) || v2IsInt || v2IsNegInt))
+      valueStack.push(bigIntMul(v2, v1));
     else overloadedBinOp(v2, v1, "mul");
   }
 
@@ -5320,7 +6807,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       valueStack.push(intSlash(v2, v1));
     else if (isFloat(v1) && isFloat(v2))
       valueStack.push(floatDiv(v2, v1));
-    else if (isBigInt(v1) || isBigInt(v2))
+    else if (isNum(v1) && isNum(v2))
       valueStack.push(bigIntDiv(v2, v1));
     else overloadedBinOp(v2, v1, "slash");
   }
@@ -5329,13 +6816,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     float f1 = (float) intValue(i1);
     float f2 = (float) intValue(i2);
     float f3 = f1 / f2;
-    return mkFloat("" + f3);
+    return mkFloat(f3);
   }
 
   public int bigIntDiv(int v1, int v2) {
-    float f1 = ensureBigInt(v1).floatValue();
-    float f2 = ensureBigInt(v2).floatValue();
-    return mkFloat(f1 / f2);
+    return mkFloat(integerToDouble(v1) / integerToDouble(v2));
   }
 
   public void gre() {
@@ -5356,8 +6841,8 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       if (stringGreater(v2, v1))
         valueStack.push(trueValue);
       else valueStack.push(falseValue);
-    else if (isBigInt(v1) || isBigInt(v2))
-      if (ensureBigInt(v1).compareTo(ensureBigInt(v2)) > 0)
+    else if (isNum(v1) && isNum(v2))
+      if (bigIntCompare(v2, v1) > 0)
         valueStack.push(trueValue);
       else valueStack.push(falseValue);
     else overloadedBinOp(v2, v1, "greater");
@@ -5387,8 +6872,8 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       if (stringLess(v2, v1))
         valueStack.push(trueValue);
       else valueStack.push(falseValue);
-    else if (isBigInt(v1) || isBigInt(v2))
-      if (ensureBigInt(v1).compareTo(ensureBigInt(v2)) < 0)
+    else if (isNum(v1) && isNum(v2))
+      if (bigIntCompare(v2, v1) < 0)
         valueStack.push(trueValue);
       else valueStack.push(falseValue);
     else overloadedBinOp(v2, v1, "less");
@@ -5478,6 +6963,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void dot(int name, int obj) {
+    dot(name, obj, -1);
+  }
+
+  public void dot(int name, int obj, int site) {
 
     // Field reference via '.' can occur to objects, collections and
     // non-objects. Field reference in objects is fairly straightforward.
@@ -5487,12 +6976,12 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // flattened (where appropriate) into a single collection a la standard
     // OCL...
 
-    switch (obj >> 24) {
+    switch (tag(obj)) {
       case FOREIGNOBJ:
         dotForeignObj(name, obj);
         break;
       case OBJ:
-        dotObj(name, obj);
+        dotObj(name, obj, site);
         break;
       case SET:
       case CONS:
@@ -5589,27 +7078,108 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void dotObj(int name, int obj) {
+    dotObj(name, obj, -1);
+  }
+
+  public void dotObj(int name, int obj, int site) {
 
     // Access a machine object field. If the object does not have a standard
     // slot access protocol then the class of the object is sent a message
     // that invokes an operation that implements the slot access protocol.
     // If the object has a standard slot access protocol then the machine
-    // can handle the access directly...
-
-    if (standardSlotAccessProtocol(obj) || isDefaultGetMOP(type(obj))) {
-      int att = objAttribute(obj, name);
+    // can handle the access directly. The site is the address of the
+    // instruction performing the access or -1...
+
+    int att = site == -1 ? -1 : slotCacheGet(site, obj, name);
+    if (att != -1)
+      valueStack.push(attributeValue(att));
+    else if (standardSlotAccessProtocol(obj) || isDefaultGetMOP(type(obj))) {
+      att = objAttribute(obj, name);
       if (att == NO_SLOT_FOUND) {
         sendSlotMissing(obj, name);
       } else if (att == SLOT_ACCESS_DENIED) {
         sendSlotDenied(obj, name); // Use other error message? YES
       } else if (att == SLOT_ACCESS_XMF) {
         sendSlotAccess(obj, name);
-      } else valueStack.push(attributeValue(att));
+      } else {
+        if (site != -1) slotCachePut(site, obj, name);
+        valueStack.push(attributeValue(att));
+      }
     } else {
       sendSlotAccess(obj, name);
     }
   }
 
+  private static int slotCacheLine(int site) {
+    return ((site * 0x9E3779B9) >>> (32 - SLOTCACHEBITS)) * SLOTCACHELINE;
+  }
+
+  private int slotCacheGet(int site, int obj, int name) {
+
+    // Return the attribute of the object that is cached for the site or
+    // -1. The attribute of the last object is returned directly. Any other
+    // object must be an instance of the cached class and the attribute at
+    // the cached position must have the name. The attribute then becomes
+    // the attribute of the last object. An attribute whose head is the
+    // name is public...
+
+    int line = slotCacheLine(site);
+    int[] cache = slotCache;
+    if (cache[line] == site && cache[line + 1] == slotEpoch && cache[line + 3] == name) {
+      if (cache[line + 5] == obj) {
+        int att = cache[line + 6];
+        if (consHead(att) == name) {
+          slotCacheHits++;
+          slotCacheObjectHits++;
+          return att;
+        }
+      } else if (cache[line + 2] == objType(obj)) {
+        int atts = objAttributes(obj);
+        for (int i = cache[line + 4]; i > 0 && atts != nilValue; i--)
+          atts = consTail(atts);
+        if (atts != nilValue) {
+          int att = consHead(atts);
+          if (consHead(att) == name) {
+            cache[line + 5] = obj;
+            cache[line + 6] = att;
+            slotCacheHits++;
+            return att;
+          }
+        }
+      }
+    }
+    slotCacheMisses++;
+    return -1;
+  }
+
+  private void slotCachePut(int site, int obj, int name) {
+
+    // Record the attribute that has just been found by objAttribute and
+    // its position for the class of the object at the site when the
+    // attribute is public...
+
+    int att = foundAttribute;
+    if (consHead(att) == name) {
+      int line = slotCacheLine(site);
+      slotCache[line] = site;
+      slotCache[line + 1] = slotEpoch;
+      slotCache[line + 2] = objType(obj);
+      slotCache[line + 3] = name;
+      slotCache[line + 4] = foundAttributeIndex;
+      slotCache[line + 5] = obj;
+      slotCache[line + 6] = att;
+    }
+  }
+
+  public void invalidateSlotCaches() {
+
+    // Called when the slot access protocol of a class may have changed
+    // or when the heap addresses recorded in the caches are no longer
+    // valid...
+
+    slotEpoch++;
+  }
+
   public void sendSlotAccess(int obj, int name) {
     openFrame();
     valueStack.push(obj);
@@ -6057,6 +7627,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     int codeBox = funCode(fun);
     int locals = codeBoxLocals(codeBox);
     int dynamics = funDynamics(fun);
+    if (jitThreshold > 0) countCall(codeBox);
     setOpenFrameGlobals(globals);
     setOpenFrameCodeBox(codeBox);
     setOpenFrameLocals((locals * 2) + arity);
@@ -6248,56 +7819,148 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void send(int target, int arity, int message) {
+    send(target, arity, message, -1);
+  }
 
-    // Implements the SEND instruction...
+  public void send(int target, int arity, int message, int site) {
+
+    // Implements the SEND instruction. The site is the address of the
+    // instruction and is used to find the inline cache for the send, it
+    // is -1 when the message is not sent by an instruction...
 
     if (isForeignObj(target))
       sendForeignObj(target, arity, message);
     else {
 
-      // Expects a target on the top of the stack above the arguments.
-      // If the target does not have a standard message sending protocol
-      // then the classifier of the target is sent a message
-      // 'sendInstance/3';
-      // otherwise the machine can send the message directly.
-      // Calculate the list of operations headed by the most specific
-      // operation with the given name and arity. If no message is
-      // found then send the target a noOperationFound message. Otherwise
-      // invoke the operation.
-
-      // Determine whether or not we have a standard message protocol...
+      // If the site has sent the message to an instance of the same
+      // classifier in the current epoch then the operations are known...
 
       int classifier = type(target);
-      int metaType = type(classifier);
+      int ops = site == -1 ? -1 : sendCacheGet(site, message, arity, classifier);
+      if (ops != -1)
+        sendOperations(target, arity, ops);
+      else sendUncached(target, classifier, arity, message, site);
+    }
+  }
+
+  private void sendUncached(int target, int classifier, int arity, int message, int site) {
 
-      boolean standardMessageProtocol = theClassClass != undefinedValue && (metaType == theClassClass || metaType == theClassPackage || metaType == theClassDataType || metaType == theTypeSeq || metaType == theTypeSet);
+    // Expects a target on the top of the stack above the arguments.
+    // If the target does not have a standard message sending protocol
+    // then the classifier of the target is sent a message
+    // 'sendInstance/3';
+    // otherwise the machine can send the message directly.
+    // Calculate the list of operations headed by the most specific
+    // operation with the given name and arity. If no message is
+    // found then send the target a noOperationFound message. Otherwise
+    // invoke the operation.
 
-      // If not standard then send a message to the class to deliver
-      // the message...
+    // Determine whether or not we have a standard message protocol...
 
-      if (!standardMessageProtocol && !isDefaultSendMOP(type(target)))
-        sendInstance(target, message, arity);
+    int metaType = type(classifier);
+
+    boolean standardMessageProtocol = theClassClass != undefinedValue && (metaType == theClassClass || metaType == theClassPackage || metaType == theClassDataType || metaType == theTypeSeq || metaType == theTypeSet);
+
+    // If not standard then send a message to the class to deliver
+    // the message...
+
+    if (!standardMessageProtocol && !isDefaultSendMOP(type(target)))
+      sendInstance(target, message, arity);
+    else {
+
+      // Otherwise perform the standard protocol:
+      // find an operation with the right name and
+      // arity and call it...
+
+      int ops = newFindOperation(classifier, message, arity);
+
+      if (ops == nilValue)
+        noOperationFound(target, arity, message);
       else {
+        if (site != -1) sendCachePut(site, message, arity, classifier, ops);
+        sendOperations(target, arity, ops);
+      }
+    }
+  }
 
-        // Otherwise perform the standard protocol:
-        // find an operation with the right name and
-        // arity and call it...
+  private void sendOperations(int target, int arity, int ops) {
 
-        int ops = newFindOperation(classifier, message, arity);
+    // Invoke the operation at the head of ops on the target. The
+    // arguments are on the stack in the open frame...
 
-        if (ops == nilValue)
-          noOperationFound(target, arity, message);
-        else {
-          int op = consHead(ops);
-          if (isFun(op)) {
-            if (funIsVarArgs(op) == trueValue) adjustVarArgs(op, arity);
-            if (funTraced(op) != undefinedValue)
-              enterTracedFun(op, funArity(op), target, ops);
-            else enterFun(op, arity, target, ops);
-          } else invokeObj(op, target, arity);
+    int op = consHead(ops);
+    if (isFun(op)) {
+      if (funIsVarArgs(op) == trueValue) adjustVarArgs(op, arity);
+      if (funTraced(op) != undefinedValue)
+        enterTracedFun(op, funArity(op), target, ops);
+      else enterFun(op, arity, target, ops);
+    } else invokeObj(op, target, arity);
+  }
+
+  private int instrSite() {
+
+    // The heap address of the instruction being performed. The code
+    // index has already been advanced past the instruction...
+
+    return ptr(words.get(ptr(valueStack.elements[currentFrame + FRAMECODEBOX]) + 2)) + (valueStack.elements[currentFrame + FRAMECODEINDEX] & DATA);
+  }
+
+  private static int sendCacheLine(int site) {
+    return ((site * 0x9E3779B9) >>> (32 - SENDCACHEBITS)) * SENDCACHELINE;
+  }
+
+  private int sendCacheGet(int site, int message, int arity, int classifier) {
+
+    // Return the operations cached for the classifier at the site or -1
+    // if there are none...
+
+    int line = sendCacheLine(site);
+    int[] cache = sendCache;
+    if (cache[line] == site && cache[line + 1] == sendEpoch && cache[line + 2] == message && cache[line + 3] == arity) {
+      for (int way = line + 4; way < line + SENDCACHELINE; way += 2) {
+        if (cache[way] == classifier) {
+          sendCacheHits++;
+          return cache[way + 1];
         }
       }
     }
+    sendCacheMisses++;
+    return -1;
+  }
+
+  private void sendCachePut(int site, int message, int arity, int classifier, int ops) {
+
+    // Record the operations for the classifier at the site. A line that
+    // belongs to another site or epoch is taken over. When all the ways
+    // are used the site is megamorphic and the operations are not
+    // cached...
+
+    int line = sendCacheLine(site);
+    int[] cache = sendCache;
+    if (cache[line] != site || cache[line + 1] != sendEpoch || cache[line + 2] != message || cache[line + 3] != arity) {
+      cache[line] = site;
+      cache[line + 1] = sendEpoch;
+      cache[line + 2] = message;
+      cache[line + 3] = arity;
+      for (int way = line + 4; way < line + SENDCACHELINE; way += 2)
+        cache[way] = -1;
+    }
+    for (int way = line + 4; way < line + SENDCACHELINE; way += 2) {
+      if (cache[way] == -1) {
+        cache[way] = classifier;
+        cache[way + 1] = ops;
+        return;
+      }
+    }
+  }
+
+  public void invalidateSendCaches() {
+
+    // Called when the operations found by a send may have changed or
+    // when the heap addresses recorded in the caches are no longer
+    // valid...
+
+    sendEpoch++;
   }
 
   public void noOperationFound(int target, int arity, int message) {
@@ -6383,7 +8046,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public int newGetOpsTable(int classifier) {
     int opsTable = hashTableGet(operatorTable, classifier);
     if (opsTable == -1) {
-      opsTable = mkHashtable(20);
+      opsTable = mkOpenHashtable(20);
       hashTablePut(operatorTable, classifier, opsTable);
     }
     return opsTable;
@@ -6411,6 +8074,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void tailSend(int arity, int message) {
+    tailSend(arity, message, -1);
+  }
+
+  public void tailSend(int arity, int message, int site) {
 
     // Implements the TAILSEND instruction...
 
@@ -6423,11 +8090,14 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       int value = valueStack.ref(argIndex++);
       pushStack(value);
     }
-    valueStack.push(target);
-    send(arity, message);
+    send(target, arity, message, site);
   }
 
   public void send0(int message) {
+    send0(message, -1);
+  }
+
+  public void send0(int message, int site) {
 
     // Implements the SEND0 instruction...
 
@@ -6442,18 +8112,15 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     } else {
       openFrame();
 
-      int ops = getOperations(target, message, 0);
+      int classifier = type(target);
+      int ops = site == -1 ? -1 : sendCacheGet(site, message, 0, classifier);
+      if (ops == -1) {
+        ops = getOperations(target, message, 0);
+        if (ops != nilValue && site != -1) sendCachePut(site, message, 0, classifier, ops);
+      }
       if (ops == nilValue)
         noOperationFound(target, 0, message);
-      else {
-        int op = consHead(ops);
-        if (isFun(op)) {
-          if (funIsVarArgs(op) == trueValue) adjustVarArgs(op, 0);
-          if (funTraced(op) != undefinedValue)
-            enterTracedFun(op, 0, target, ops);
-          else enterFun(op, 0, target, ops);
-        } else invokeObj(op, target, 0);
-      }
+      else sendOperations(target, 0, ops);
     }
   }
 
@@ -6554,13 +8221,6 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     return valueStack.getTOS();
   }
 
-  public void tailSend0(int message) {
-
-    // Implements the TAILSEND0 instuction...
-
-    tailSend(0, message);
-  }
-
   public void global(int operands) {
 
     // Implement the GLOBAL instruction. Two indices define how far
@@ -6585,8 +8245,13 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void setSlot(int obj, int name, int value) {
+    setSlot(obj, name, value, -1);
+  }
 
-    // Decide what to do depending on the type of obj...
+  public void setSlot(int obj, int name, int value, int site) {
+
+    // Decide what to do depending on the type of obj. The site is the
+    // address of the instruction performing the update or -1...
 
     switch (tag(obj)) {
 
@@ -6595,10 +8260,16 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         // If the object has a standard slot access protocol then just
         // update the slot and fire any daemons. Otherwise there may be
         // a specialized slot update protocol defined via 'setInstanceSlot'
-        // in the class of the object.
-
-        if (standardSlotAccessProtocol(obj) || isDefaultSetMOP(type(obj)))
-          setObjSlot(obj, name, value);
+        // in the class of the object. Updates to objects without daemons
+        // can use the slot cache...
+
+        int att = (site == -1 || objHasActiveDaemons(obj)) ? -1 : slotCacheGet(site, obj, name);
+        if (att != -1) {
+          undo.setSlot(obj, name, value, attributeValue(att));
+          attributeSetValue(att, value);
+          valueStack.push(obj);
+        } else if (standardSlotAccessProtocol(obj) || isDefaultSetMOP(type(obj)))
+          setObjSlot(obj, name, value, site);
         else sendSlotUpdate(obj, name, value);
         break;
 
@@ -6662,14 +8333,22 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     send(2, mkSymbol("set"));
   }
 
+  private boolean objHasActiveDaemons(int obj) {
+    return (objDaemonsActive(obj) == trueValue) && (objDaemons(obj) != nilValue);
+  }
+
   public void setObjSlot(int obj, int name, int value) {
+    setObjSlot(obj, name, value, -1);
+  }
+
+  public void setObjSlot(int obj, int name, int value, int site) {
 
     // Setting the slot of an object should update the object and
     // then fire all the daemons registered with the object. To fire
     // the daemons on an object, sendthe object a message
     // 'fire(name,oldValue,newValue)'.
 
-    if ((objDaemonsActive(obj) == trueValue) && (objDaemons(obj) != nilValue)) {
+    if (objHasActiveDaemons(obj)) {
       int oldValue = objAttValue(obj, name);
       int result = objSetAttValue(obj, name, value);
       if (result == NO_SLOT_FOUND) sendSlotMissing(obj, name, value);
@@ -6684,6 +8363,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       int result = objSetAttValue(obj, name, value);
       if (result == NO_SLOT_FOUND) sendSlotMissing(obj, name, value);
       if (result == SLOT_ACCESS_DENIED) sendSlotDenied(obj, name, value);
+      if (site != -1 && result == value) slotCachePut(site, obj, name);
       valueStack.push(obj);
     }
   }
@@ -6890,6 +8570,9 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       case ARRAY:
         return arrayLength(collection);
       case HASHTABLE:
+        // Open tables keep a count of their entries. A chained table
+        // reports the number of buckets that XOCL code can access...
+        if (isOpenTable(collection)) return openTableCount(collection);
         return arrayLength(collection);
       default:
         throw new MachineError(TYPE, "Size: expecting a collection.", collection);
@@ -7188,7 +8871,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Implements the OF instruction...
 
-    switch (value >> 24) {
+    switch (tag(value)) {
       case ARRAY:
         return theClassVector;
       case BOOL:
@@ -7533,6 +9216,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public void arraySetValue(int array, int index, int newValue) {
     if (isArray(array) || isTable(array)) {
       int oldValue = arrayRef(array, value(index));
+      if (isTable(array)) rememberTable(array, newValue);
       arraySet(array, value(index), newValue);
       arraySetDaemons(array, index, newValue, oldValue);
     } else if (isBuffer(array)) {
@@ -7600,10 +9284,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public void tablePut(int table, int key, int value) {
     if (isTable(table)) {
       if (hashTableGet(table, key) != value) {
-        int index = hashTableIndex(table, key);
         boolean active = arrayDaemonsActive(table) == trueValue;
         boolean hasDaemons = arrayDaemons(table) != nilValue;
-        if (active && hasDaemons) {
+        if (active && hasDaemons && !isOpenTable(table)) {
+          int index = hashTableIndex(table, key);
           int oldBucket = copyBucket(hashTableBucket(table, key));
           hashTablePut(table, key, value);
           int newBucket = hashTableBucket(table, key);
@@ -7627,7 +9311,20 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Implements the SLEEP instruction...
 
     threads.sleep();
-    yield();
+    yield();
+  }
+
+  public void delay(int millis) {
+
+    // Implements Kernel_delay. The return value of the call is taken
+    // from the stack and the current thread sleeps. XOS wakes the thread
+    // with the return value when the time has passed. The thread can be
+    // woken earlier by Thread::wake in the same way as a sleeping thread...
+
+    int value = valueStack.pop();
+    threads.sleep();
+    XOS.wakeAfter(threads, millis, value);
+    this.yield();
   }
 
   public void dispatch(int jumpTable, int value) {
@@ -7984,9 +9681,14 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int frameArity() {
 
-    // The arity of the currently executing fun ...
+    // The arity of the currently executing fun. Code that is
+    // performed at the top level (for example the boot code in an
+    // image) has no fun and no arguments...
 
-    return funArity(consHead(frameSuper()));
+    int supers = frameSuper();
+    if (isCons(supers))
+      return funArity(consHead(supers));
+    else return 0;
   }
 
   public int frameCodeIndex() {
@@ -8234,15 +9936,45 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   // and the old heap is thrown away. This way any garbage is not
   // copied to the new heap and is discarded.
 
+  // Most values die young so the heap is split into two generations.
+  // New values are allocated in the young generation which is collected
+  // on its own (a minor collection) when it is full. The survivors are
+  // copied to the end of the old generation which is only collected when
+  // it reaches the GC limit (a full collection). Pointers from old values
+  // to young values are found by scanning the cards of the old generation
+  // that have been marked by set().
+
   public void gc() {
 
     // Perform garbage collection. Can be called anywhere providing all
     // collectable values are accessible from the top-level machine
-    // structures.
+    // structures. Collectors that extend GC to sweep the heap must see
+    // every value and always perform a full collection. An incremental
+    // collection is started when there is less than two nurseries of
+    // space above the old generation...
+
+    if (replicating)
+      gcIncrement();
+    else if (oldTop > 0 && nurserySize > 0 && oldTop + nurserySize <= gcLimit && freePtr <= gcLimit && gc.getClass() == GC.class) {
+      minorGC();
+      if (gcStepSize > 0 && oldTop + (2 * nurserySize) > gcLimit) startIncrementalGC();
+    } else fullGC();
+  }
+
+  public void fullGC() {
 
-    long startTime = System.currentTimeMillis();
+    // Copy all reachable values into the GC heap. Everything
+    // that survives becomes part of the old generation...
+
+    if (replicating) {
+      finishIncrementalGC();
+      return;
+    }
+    long startTime = System.nanoTime();
 
     try {
+      collecting = true;
+      gcBoundary = 0;
       clearGCHeap();
       gcResetStats();
       gcSymbols();
@@ -8253,31 +9985,399 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       gcUndo();
       gc.gcComplete();
       swapHeap();
+      youngKeyTableCount = 0;
+      promote(0);
+      gc.gcPopStack();
+      long time = System.nanoTime() - startTime;
+      fullCollections++;
+      fullCollectionTime += time;
+      longestCollection = Math.max(longestCollection, time);
+      if (!gc.isSilent()) gcDiagnostics(time);
+      recentMinorCollections = 0;
+      recentMinorCollectionTime = 0;
+    } catch (Throwable t) {
+      error(GCERROR, t.getMessage());
+    } finally {
+      collecting = false;
+    }
+  }
+
+  public void minorGC() {
+
+    // Copy the reachable young values into the GC heap starting at
+    // oldTop and then copy them back into the heap. The roots are the
+    // same as for a full collection plus the marked cards of the old
+    // generation. The old generation is not moved so there is no need
+    // to rehash the tables in it unless they have young keys...
+
+    long startTime = System.nanoTime();
+    int youngTop = freePtr;
+
+    try {
+      collecting = true;
+      gcBoundary = oldTop;
+      gcFreePtr = oldTop;
+      gcCopiedPtr = oldTop;
+      gcClearPtr = oldTop;
+      gcResetStats();
+      gcSymbols();
+      gcSpecials();
+      gcForeign();
+      gcStack();
+      gcConstants();
+      gcUndo();
+      gcCards();
+      gc.gcComplete();
+      gcBoundary = 0;
+      gcWords.copy(oldTop, words, oldTop, gcFreePtr - oldTop);
+      freePtr = gcFreePtr;
+      clearPtr = freePtr;
+      gcFreePtr = youngTop;
+      invalidateSendCaches();
+      invalidateSlotCaches();
+      invalidateDecodedInstrs();
+      promote(oldTop);
+      gc.gcPopStack();
+      rehashYoungKeyTables();
+      long time = System.nanoTime() - startTime;
+      minorCollections++;
+      minorCollectionTime += time;
+      recentMinorCollections++;
+      recentMinorCollectionTime += time;
+      longestCollection = Math.max(longestCollection, time);
+    } catch (Throwable t) {
+      gcBoundary = 0;
+      error(GCERROR, t.getMessage());
+    } finally {
+      collecting = false;
+    }
+  }
+
+  private void gcCards() {
+
+    // Copy the young values referenced from the marked cards of the old
+    // generation. A scan of a card starts at the first word recorded for
+    // the card and only updates the words inside the card. Values in the
+    // cards are updated in place since the old generation does not move...
+
+    int lastCard = (oldTop - 1) >>> CARDBITS;
+    for (int card = 0; card <= lastCard; card++) {
+      if (cards[card] != 0) {
+        cards[card] = 0;
+        int start = card << CARDBITS;
+        int end = Math.min(start + (1 << CARDBITS), oldTop);
+        int ptr = cardStarts[card];
+        while (ptr < end) {
+          int word = words.get(ptr);
+          int size = heapUnitSize(word);
+          if (ptr >= start && size == 1 && isYoung(word)) words.set(ptr, gcCopy(word));
+          ptr = ptr + size;
+        }
+      }
+    }
+  }
+
+  private void promote(int from) {
+    promote(from, from);
+  }
+
+  private void promote(int from, int parsed) {
+
+    // The heap from 'from' to freePtr becomes part of the old generation.
+    // The card starts below 'parsed' have already been recorded...
+
+    int lastCard = (Math.max(freePtr, from + 1) - 1) >>> CARDBITS;
+    Arrays.fill(cards, from >>> CARDBITS, lastCard + 1, (byte) 0);
+    recordCardStarts(words, parsed, freePtr);
+    oldTop = freePtr;
+    setGCTrigger();
+  }
+
+  private void recordCardStarts(Heap heap, int from, int to) {
+
+    // The heap is walked in the same way as GC.gcComplete() walks the GC
+    // heap in order to record where scans of the cards start...
+
+    int ptr = from;
+    while (ptr < to) {
+      int size = heapUnitSize(heap.get(ptr));
+      int card = (ptr + (1 << CARDBITS) - 1) >>> CARDBITS;
+      while ((card << CARDBITS) < ptr + size)
+        cardStarts[card++] = ptr;
+      ptr = ptr + size;
+    }
+  }
+
+  private void startIncrementalGC() {
+
+    // Copy the values referenced by the roots without changing the roots
+    // and arrange for the scan to be advanced as the machine allocates.
+    // The scan must be complete before the remaining heap is used up...
+
+    long startTime = System.nanoTime();
+    if (replicas == null || replicas.length < words.size()) replicas = new int[words.size()];
+    replicaEpoch = (replicaEpoch % REPLICAEPOCHS) + 1;
+    if (replicaEpoch == 1) Arrays.fill(replicas, 0);
+    gcBoundary = 0;
+    clearGCHeap();
+    replicating = true;
+    replicaTop = freePtr;
+    replicaParsed = 0;
+    replicaTableCount = 0;
+    recentIncrements = 0;
+    replicaPace = (int) Math.max(K, (long) (gcLimit - freePtr) * gcStepSize / Math.max(freePtr, 1) / 2);
+    try {
+      collecting = true;
+      gcTOS = valueStack.getTOS();
+      gcSnapshot = true;
+      gcSymbols();
+      gcSpecials();
+      gcForeign();
+      gcStack();
+      gcConstants();
+      gcUndo();
+      gcSnapshot = false;
+      setGCTrigger();
+      gcPause(System.nanoTime() - startTime);
+    } catch (Throwable t) {
+      gcSnapshot = false;
+      replicating = false;
+      error(GCERROR, t.getMessage());
+    } finally {
+      collecting = false;
+    }
+  }
+
+  private void gcIncrement() {
+
+    // Scan the next step of the GC heap. The scanned part of the GC heap
+    // will not change shape so the card starts can be recorded as the
+    // scan proceeds...
+
+    if (freePtr > gcLimit) {
+      finishIncrementalGC();
+      return;
+    }
+    long startTime = System.nanoTime();
+    try {
+      collecting = true;
+      gcReplicateCards();
+      boolean complete = gc.gcScan(gcStepSize);
+      recordCardStarts(gcWords, replicaParsed, gcCopiedPtr);
+      replicaParsed = gcCopiedPtr;
+      recentIncrements++;
+      if (complete)
+        finishIncrementalGC();
+      else {
+        setGCTrigger();
+        gcPause(System.nanoTime() - startTime);
+      }
+    } catch (Throwable t) {
+      replicating = false;
+      error(GCERROR, t.getMessage());
+    } finally {
+      collecting = false;
+    }
+  }
+
+  private void finishIncrementalGC() {
+
+    // Complete the scan then copy the words of replicated values that
+    // may have been updated since they were copied (the marked cards)
+    // and the roots. After this the GC heap is a complete copy and the
+    // heaps can be swapped...
+
+    long startTime = System.nanoTime();
+    try {
+      collecting = true;
+      gc.gcComplete();
+      gcReplicateCards();
+      gc.gcComplete();
+      gcResetStats();
+      gcSymbols();
+      gcSpecials();
+      gcForeign();
+      gcStack();
+      gcConstants();
+      gcUndo();
+      gc.gcComplete();
+      replicating = false;
+      swapHeap();
+      youngKeyTableCount = 0;
+      promote(0, replicaParsed);
+      for (int i = 0; i < replicaTableCount; i++)
+        pushStack(replicaTables[i]);
+      replicaTableCount = 0;
       gc.gcPopStack();
-      if (!gc.isSilent()) gcDiagnostics(startTime);
+      long time = System.nanoTime() - startTime;
+      fullCollections++;
+      fullCollectionTime += time;
+      gcPause(time);
+      if (!gc.isSilent()) gcDiagnostics(time);
+      recentMinorCollections = 0;
+      recentMinorCollectionTime = 0;
+      recentIncrements = 0;
     } catch (Throwable t) {
+      replicating = false;
       error(GCERROR, t.getMessage());
+    } finally {
+      collecting = false;
+    }
+  }
+
+  private void gcReplicateCards() {
+
+    // Words of the heap that have been updated since they were replicated
+    // are in marked cards. Copy them again and clear the cards. Values in
+    // the part of the GC heap that has not been scanned yet are copied as
+    // they are and will be scanned later...
+
+    int scanned = gcCopiedPtr;
+    int lastCard = (Math.max(freePtr, 1) - 1) >>> CARDBITS;
+    for (int card = 0; card <= lastCard; card++) {
+      if (cards[card] != 0) {
+        cards[card] = 0;
+        int end = Math.min((card + 1) << CARDBITS, freePtr);
+        for (int ptr = card << CARDBITS; ptr < end; ptr++) {
+          int replica = replicas[ptr];
+          if ((replica >>> REPLICAEPOCHSHIFT) == replicaEpoch) {
+            int word = words.get(ptr);
+            int dest = replica & REPLICAPTR;
+            if ((replica & REPLICARAW) != 0 || dest >= scanned || !isPointer(word))
+              gcWords.set(dest, word);
+            else gcWords.set(dest, gc.gcCopy(word));
+          }
+        }
+      }
+    }
+  }
+
+  private void replicate(int source, int destination) {
+
+    // Record the forwarding address of each word of a value that has
+    // been replicated. The value is the last one copied into the GC heap.
+    // Raw data is marked so that it is copied as it is...
+
+    int from = ptr(source);
+    int to = ptr(destination);
+    int size = gcFreePtr - to;
+    int epoch = replicaEpoch << REPLICAEPOCHSHIFT;
+    int i = 0;
+    while (i < size) {
+      int unitSize = heapUnitSize(gcWords.get(to + i));
+      int raw = unitSize == 1 ? 0 : REPLICARAW;
+      for (int j = 0; j < unitSize && i < size; j++, i++)
+        replicas[from + i] = epoch | raw | (to + i);
+    }
+  }
+
+  public void gcRehashLater(int table) {
+
+    // Tables are rehashed at the end of a collection. The tables are left
+    // on the stack unless the machine is still running...
+
+    if (replicating) {
+      if (replicaTableCount == replicaTables.length) replicaTables = Arrays.copyOf(replicaTables, replicaTableCount * 2);
+      replicaTables[replicaTableCount++] = table;
+    } else pushStack(table);
+  }
+
+  private void gcPause(long time) {
+    longestCollection = Math.max(longestCollection, time);
+  }
+
+  public static int heapUnitSize(int word) {
+
+    // Return the number of heap words starting with the given word
+    // that are walked as a unit. Headers are followed by raw data...
+
+    switch (tag(word)) {
+      case CODELENGTH:
+        return value(word) + 1;
+      case STRINGLENGTH:
+        return (value(word) / 4) + 1;
+      case FLOATBITS:
+        return FLOAT_SIZE;
+      case BIGINTLENGTH:
+        return BIGINT_HEADER + value(word);
+      default:
+        return 1;
+    }
+  }
+
+  public boolean isYoung(int word) {
+
+    // Returns true when the word points into the young generation...
+
+    return isPointer(word) && ptr(word) >= oldTop;
+  }
+
+  public static boolean isPointer(int word) {
+
+    // Returns true when the word points to a value in the heap...
+
+    switch (tag(word)) {
+      case ARRAY:
+      case BUFFER:
+      case CODEBOX:
+      case CODE:
+      case CONT:
+      case FUN:
+      case OBJ:
+      case STRING:
+      case CONS:
+      case SET:
+      case SYMBOL:
+      case HASHTABLE:
+      case FLOAT:
+      case BIGINT:
+      case DAEMON:
+      case FORWARDREF:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void rememberTable(int table, int key) {
+
+    // Called when a key is added to a table. If the table is old and the
+    // key is young then the hash code of the key will change when the key
+    // is promoted...
+
+    if (ptr(table) < oldTop && isYoung(key) && !isString(key)) {
+      if (youngKeyTableCount > 0 && youngKeyTables[youngKeyTableCount - 1] == table) return;
+      if (youngKeyTableCount == youngKeyTables.length) youngKeyTables = Arrays.copyOf(youngKeyTables, youngKeyTableCount * 2);
+      youngKeyTables[youngKeyTableCount++] = table;
     }
   }
 
+  private void rehashYoungKeyTables() {
+    int count = youngKeyTableCount;
+    youngKeyTableCount = 0;
+    Arrays.sort(youngKeyTables, 0, count);
+    for (int i = 0; i < count; i++)
+      if (i == 0 || youngKeyTables[i] != youngKeyTables[i - 1]) rehash(youngKeyTables[i]);
+  }
+
   public GC getGC() {
     return gc;
   }
 
   public void setGC(GC gc) {
+    if (replicating) finishIncrementalGC();
     this.gc = gc;
   }
 
   public void clearGCHeap() {
 
-    // The garbage collector copies into the
-    // gcWords heap. This must be
-    // cleared prior to copy.
+    // The garbage collector copies into the gcWords heap.
+    // Copied values overwrite the old contents and the
+    // rest of the heap is cleared as it is allocated...
 
-    for (int i = 0; i < gcWords.length; i++)
-      gcWords[i] = undefinedValue;
     gcFreePtr = 0;
     gcCopiedPtr = 0;
+    gcClearPtr = 0;
   }
 
   public void swapHeap() {
@@ -8285,20 +10385,32 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Swap between the two heaps. All allocation and memory reference
     // occurs with respect to the 'words' array and 'freePtr'...
 
-    int[] tempWords = words;
+    Heap tempWords = words;
     int tempFreePtr = freePtr;
+    int tempClearPtr = clearPtr;
     words = gcWords;
     freePtr = gcFreePtr;
+    clearPtr = gcClearPtr;
     gcWords = tempWords;
     gcFreePtr = tempFreePtr;
+    gcClearPtr = tempClearPtr;
+    invalidateSendCaches();
+    invalidateSlotCaches();
+    invalidateDecodedInstrs();
+  }
+
+  public boolean isCollecting() {
+    return collecting;
   }
 
   public boolean collected(int word) {
 
     // A data structure has been collected when its header word is a
-    // forward pointer into the gcHeap...
+    // forward pointer into the gcHeap. Old data structures are not
+    // copied by a minor collection...
 
-    return tag(ref(ptr(word))) == FORWARD;
+    if (replicating) return (replicas[ptr(word)] >>> REPLICAEPOCHSHIFT) == replicaEpoch;
+    return ptr(word) < gcBoundary || tag(ref(ptr(word))) == FORWARD;
   }
 
   public void setForward(int source, int destination) {
@@ -8307,13 +10419,17 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // header word to be a forward pointer. Assume that the heaps are
     // correct.
 
-    set(ptr(source), mkPtr(FORWARD, ptr(destination)));
+    if (replicating)
+      replicate(source, destination);
+    else set(ptr(source), mkPtr(FORWARD, ptr(destination)));
   }
 
   public int forward(int tag, int word) {
 
     // Tag the pointer part of the forward pointer in the header word...
 
+    if (replicating) return mkPtr(tag, replicas[ptr(word)] & REPLICAPTR);
+    if (ptr(word) < gcBoundary) return word;
     return mkPtr(tag, ptr(ref(ptr(word))));
   }
 
@@ -8328,8 +10444,15 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public int gcCopy(int word) {
 
     // Copy a data structure into the new heap returning a machine word
-    // with respect to the new heap...
+    // with respect to the new heap. When an incremental collection
+    // starts the machine carries on using the old heap so the roots
+    // are copied but keep their old values...
+
+    int copy = gcCopyValue(word);
+    return gcSnapshot ? word : copy;
+  }
 
+  private int gcCopyValue(int word) {
     switch (tag(word)) {
       case ARRAY:
         return gc.gcArray(word);
@@ -8375,6 +10498,8 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         return gc.gcHashTable(word);
       case FLOAT:
         return gc.gcFloat(word);
+      case BIGINT:
+        return gc.gcBigInt(word);
       case DAEMON:
         return gc.gcDaemon(word);
       case FORWARDREF:
@@ -8384,20 +10509,27 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     }
   }
 
-  public void gcDiagnostics(long startTime) {
-    // Print out some information stating how much memory was freed up.
+  public void gcDiagnostics(long time) {
+    // Print out some information stating how much memory was freed up,
+    // the pause (in nanoseconds) and the minor collections since the
+    // last full collection.
     int freedup = gcFreePtr - freePtr;
-    long endTime = System.currentTimeMillis();
-    long time = endTime - startTime;
     int percentFreed = (int) (((float) freedup / (float) gcFreePtr) * 100);
     int availableMB = (heapSize - freePtr) * 4 / (1024 * 1024);
     int usedMB = freePtr * 4 / (1024 * 1024);
     System.out.print("[GC");
     // System.out.println(" before = " + gcFreePtr + " words,");
     // System.out.print(" after = " + freePtr + " words,");
-    System.out.print(" " + percentFreed + "% collected in " + time + " ms,");
+    System.out.print(" " + percentFreed + "% collected in " + millis(time) + " ms,");
     System.out.print(" " + usedMB + "MB used,");
-    System.out.println(" " + availableMB + "MB available.]");
+    System.out.print(" " + availableMB + "MB available");
+    if (recentIncrements > 0) System.out.print(", " + recentIncrements + " increments");
+    if (recentMinorCollections > 0) System.out.print(", " + recentMinorCollections + " minor collections averaging " + millis(recentMinorCollectionTime / recentMinorCollections) + " ms");
+    System.out.println(".]");
+  }
+
+  private static float millis(long nanos) {
+    return (nanos / 100000) / 10F;
   }
 
   public void gcForeign() {
@@ -8417,6 +10549,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // Elements hash codes may have changed (due to gc ?)
     // so reposition all the elements in the table...
 
+    if (isOpenTable(table)) {
+      openTableResize(table, openTableCapacity(table));
+      return;
+    }
     int TOS = valueStack.getTOS();
     hashTablePushCells(table);
     hashTableClear(table);
@@ -8470,15 +10606,23 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     if (collected(set))
       return forward(SET, set);
     else {
-      int elements = setElements(set);
-      swapHeap();
-      int newSet = mkSet(elements);
-      swapHeap();
+      int newSet = gcCopySet(set);
       setForward(set, newSet);
       return newSet;
     }
   }
 
+  public int gcCopySet(int set) {
+
+    // Sets are copied as they are. Using mkSet would share the empty
+    // set which may not have been copied yet...
+
+    words.copy(ptr(set), gcWords, gcFreePtr, SET_SIZE);
+    int ptr = mkPtr(SET, gcFreePtr);
+    gcFreePtr += SET_SIZE;
+    return ptr;
+  }
+
   public void gcSpecials() {
 
     // Garbage collect various values that are known by the
@@ -8523,26 +10667,26 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void gcSymbolConstants() {
-    theSymbolAttributes = gc.gcSymbol(theSymbolAttributes);
-    theSymbolInit = gc.gcSymbol(theSymbolInit);
-    theSymbolMachineInit = gc.gcSymbol(theSymbolMachineInit);
-    theSymbolType = gc.gcSymbol(theSymbolType);
-    theSymbolDefault = gc.gcSymbol(theSymbolDefault);
-    theSymbolOperations = gc.gcSymbol(theSymbolOperations);
-    theSymbolParents = gc.gcSymbol(theSymbolParents);
-    theSymbolName = gc.gcSymbol(theSymbolName);
-    theSymbolArity = gc.gcSymbol(theSymbolArity);
-    theSymbolOwner = gc.gcSymbol(theSymbolOwner);
-    theSymbolContents = gc.gcSymbol(theSymbolContents);
-    theSymbolInvoke = gc.gcSymbol(theSymbolInvoke);
-    theSymbolDot = gc.gcSymbol(theSymbolDot);
-    theSymbolFire = gc.gcSymbol(theSymbolFire);
-    theSymbolValue = gc.gcSymbol(theSymbolValue);
-    theSymbolDocumentation = gc.gcSymbol(theSymbolDocumentation);
-    theSymbolHead = gc.gcSymbol(theSymbolHead);
-    theSymbolTail = gc.gcSymbol(theSymbolTail);
-    theSymbolIsEmpty = gc.gcSymbol(theSymbolIsEmpty);
-    theSymbolNewListener = gc.gcSymbol(theSymbolNewListener);
+    theSymbolAttributes = gcCopy(theSymbolAttributes);
+    theSymbolInit = gcCopy(theSymbolInit);
+    theSymbolMachineInit = gcCopy(theSymbolMachineInit);
+    theSymbolType = gcCopy(theSymbolType);
+    theSymbolDefault = gcCopy(theSymbolDefault);
+    theSymbolOperations = gcCopy(theSymbolOperations);
+    theSymbolParents = gcCopy(theSymbolParents);
+    theSymbolName = gcCopy(theSymbolName);
+    theSymbolArity = gcCopy(theSymbolArity);
+    theSymbolOwner = gcCopy(theSymbolOwner);
+    theSymbolContents = gcCopy(theSymbolContents);
+    theSymbolInvoke = gcCopy(theSymbolInvoke);
+    theSymbolDot = gcCopy(theSymbolDot);
+    theSymbolFire = gcCopy(theSymbolFire);
+    theSymbolValue = gcCopy(theSymbolValue);
+    theSymbolDocumentation = gcCopy(theSymbolDocumentation);
+    theSymbolHead = gcCopy(theSymbolHead);
+    theSymbolTail = gcCopy(theSymbolTail);
+    theSymbolIsEmpty = gcCopy(theSymbolIsEmpty);
+    theSymbolNewListener = gcCopy(theSymbolNewListener);
   }
 
   public void gcSymbols() {
@@ -8596,10 +10740,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public void gcUpdateCopied(int word) {
-    gcWords[gcCopiedPtr++] = word;
+    gcWords.set(gcCopiedPtr++, word);
   }
 
-  public int[] getGCHeap() {
+  public Heap getGCHeap() {
     return gcWords;
   }
 
@@ -8615,6 +10759,53 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     this.gcCopiedPtr = gcCopiedPtr;
   }
 
+  public void setGCFreePtr(int gcFreePtr) {
+    this.gcFreePtr = gcFreePtr;
+  }
+
+  public int getGCBoundary() {
+    return gcBoundary;
+  }
+
+  public ParallelScan parallelScan() {
+
+    // Returns the parallel scan that completes the current collection or
+    // null if the collection must be completed by the GC. Extensions of
+    // GC see every value so they are not run in parallel. The GC heap must
+    // have room for the values that are copied and the unused parts of the
+    // allocation buffers. A buffer is only retired when a value of at most
+    // an eighth of a buffer does not fit, so at least 7/8 of every buffer
+    // that is retired is used. Legacy values are converted by the first collection
+    // after a heap is loaded. The workers claim values in heap arrays so
+    // heaps outside the Java heap are always collected by the GC. Collections
+    // that must copy values in order or record the objects that they copy
+    // are not run in parallel...
+
+    if (replicating || gcOrdered || census != null || oldTop == 0 || gc.getClass() != GC.class || offHeap) return null;
+    int threads = gcThreads;
+    if (threads == 0) threads = heapSize >= PARALLELGCHEAP ? Math.min(MAXGCTHREADS, Runtime.getRuntime().availableProcessors()) : 1;
+    if (threads < 2) return null;
+    long limit = gcBoundary + ((long) (freePtr - gcBoundary) * 8 / 7) + ((long) threads * GCTLABSIZE * 2);
+    if (limit > gcWords.size()) return null;
+    if (parallelScan == null || parallelScan.threads() != threads) {
+      if (parallelScan != null) parallelScan.shutdown();
+      parallelScan = new ParallelScan(this, threads);
+    }
+    return parallelScan;
+  }
+
+  public void gcChecked(String error) {
+
+    // Called when a parallel scan has been checked against the GC. The
+    // error is null when the scans are the same...
+
+    gcChecks++;
+    if (error != null) {
+      gcCheckFailures++;
+      System.err.println("ParallelScan: " + error);
+    }
+  }
+
   public void advanceCopiedPtr() {
     gcCopiedPtr++;
   }
@@ -8624,7 +10815,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public int gcValue() {
-    return gcWords[gcCopiedPtr];
+    return gcWords.get(gcCopiedPtr);
   }
 
   public Header defaultHeader() {
@@ -8636,6 +10827,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     Header header = new Header();
     header.setProperty("Tool", "XMF-Mosaic");
     header.setProperty("Version", "1.0");
+    header.setProperty(STRING_HASH_PROPERTY, STRING_HASH);
     return header;
   }
 
@@ -8776,14 +10968,14 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public void printGCHeap() {
     for (int i = 0; i < gcFreePtr; i++)
-      System.out.println("[" + i + "] " + tag(gcWords[i]) + " " + value(gcWords[i]));
+      System.out.println("[" + i + "] " + tag(gcWords.get(i)) + " " + value(gcWords.get(i)));
     System.out.println("gcFreePtr = " + gcFreePtr);
     System.out.println("gcCopiedPtr = " + gcCopiedPtr);
   }
 
   public void printHeap() {
-    for (int i = 0; i < words.length; i++)
-      System.out.println("[" + i + "] " + tag(words[i]) + ":" + value(words[i]));
+    for (int i = 0; i < words.size(); i++)
+      System.out.println("[" + i + "] " + tag(words.get(i)) + ":" + value(words.get(i)));
   }
 
   public void printInstrBacktrace(PrintStream out, int frame) {
@@ -8843,22 +11035,46 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     out.println("operator table = " + valueToString(operatorTable));
     out.println("constructor table = " + valueToString(constructorTable));
     out.println("symbol table = " + valueToString(symbolTable));
+    out.println(tableResizes + " table resizes, " + tablePurges + " table purges.");
+    out.println(sendCacheHits + " send cache hits, " + sendCacheMisses + " send cache misses.");
+    out.println(slotCacheHits + " slot cache hits (" + slotCacheObjectHits + " on the last object), " + slotCacheMisses + " slot cache misses.");
+    out.println(decodeHits + " decoded code hits, " + decodeMisses + " code boxes decoded.");
+    out.println(codeBoxesCompiled + " code boxes compiled.");
+    if (gcCheck) out.println(gcChecks + " parallel collection checks, " + gcCheckFailures + " failed.");
+    if (jitCheck) out.println(jitChecks + " compiled code checks, " + jitChecksSkipped + " skipped, " + jitCheckFailures + " failed.");
+    out.println(minorCollections + " minor collections in " + millis(minorCollectionTime) + " ms, " + fullCollections + " full collections in " + millis(fullCollectionTime) + " ms, longest pause " + millis(longestCollection) + " ms.");
+    printInstrProfile(out, 20);
+    if (allocationProfile != null) allocationProfile.print(out, 20);
     out.println("undo = [" + undo.undoStackSize() + "," + undo.undoCommandSize() + "]");
     out.println("redo = [" + undo.redoStackSize() + "," + undo.redoCommandSize() + "]");
     out.println(instrsPerformed + " instructions performed.");
+    printThreadStats(out);
     out.println("time since boot = " + elapsedTimeMillis + " sec");
     debugger.printStats(out);
     memStat(out);
   }
 
+  public void printThreadStats(PrintStream out) {
+
+    // Print the instructions performed by each thread and the number of
+    // times that it has been scheduled...
+
+    if (threads == null) return;
+    Thread thread = threads;
+    do {
+      out.println("  thread " + thread.getName() + " (" + thread.id() + ") priority " + thread.priority() + ", " + thread.instructions() + " instructions in " + thread.slices() + " slices.");
+      thread = thread.next();
+    } while (thread != threads);
+  }
+
   public void memStat(PrintStream out) {
 
     // If you are having problems with memory management then you can use
     // this routine to print out the current state of the VM heap in
     // XMF words.
 
-    int memSize = calc(words.length);
-    int freeSize = calc(words.length - freePtr);
+    int memSize = calc(words.size());
+    int freeSize = calc(words.size() - freePtr);
     out.println("Total memory:" + memSize);
     out.println("Free memory: " + freeSize);
     out.println("Stack: " + calc(valueStack.size()));
@@ -8900,14 +11116,49 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         XOS.write(value(channel), value(value));
         break;
       case STRING:
-        for (int i = 0; i < stringLength(value); i++)
-          XOS.write(value(channel), value(stringRef(value, i)));
+        writeChars(channel, value);
+        break;
+      case BUFFER:
+        if (bufferAsString(value) == trueValue)
+          writeBufferChars(channel, value);
+        else throw new MachineError(TYPE, "Only character buffers can be written to an output channel: " + valueToString(value));
         break;
       default:
         throw new MachineError(TYPE, "Unknown type to write to an output channel: " + valueToString(value));
     }
   }
 
+  public void writeBufferChars(int channel, int buffer) {
+
+    // Write the elements of a character buffer. The storage arrays are
+    // walked in order rather than finding the array for each index...
+
+    int size = value(bufferSize(buffer));
+    int increment = value(bufferIncrement(buffer));
+    int storage = bufferStorage(buffer);
+    int count = 0;
+    for (int index = 0; index < size; index++) {
+      if (index > 0 && index % increment == 0) storage = consTail(storage);
+      writeBytes[count++] = (byte) value(arrayRef(consHead(storage), index % increment));
+      if (count == writeBytes.length || index == size - 1) {
+        XOS.write(value(channel), writeBytes, 0, count);
+        count = 0;
+      }
+    }
+  }
+
+  public void writeChars(int channel, int string) {
+
+    // Write the characters of a string in blocks...
+
+    int length = stringLength(string);
+    for (int index = 0; index < length; index = index + writeBytes.length) {
+      int count = Math.min(writeBytes.length, length - index);
+      stringBytes(string, index, writeBytes, count);
+      XOS.write(value(channel), writeBytes, 0, count);
+    }
+  }
+
   public int writeCommand(int client, int mname, int arity, boolean isCall) {
 
     // Called from the var arg foreign function writeCommand.
@@ -8986,7 +11237,12 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   public float asFloat(int f) {
-    return Float.parseFloat(valueToString(f));
+
+    // Native floats hold their raw bits after the header...
+
+    if (isLegacyFloat(f))
+      return Float.parseFloat(valueToString(ref(ptr(f))));
+    else return Float.intBitsToFloat(ref(ptr(f) + 1));
   }
 
   public void writeData(int channel, int value) {
@@ -8999,8 +11255,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         break;
       case STRING:
         XOS.startString(value(channel), stringLength(value));
-        for (int i = 0; i < stringLength(value); i++)
-          XOS.write(value(channel), stringRef(value, i));
+        writeChars(channel, value);
         break;
       default:
         XOS.writeString(value(channel), valueToString(value));
@@ -9131,9 +11386,33 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Save a VM image in a file...
 
+    if (optimiseImages) optimiseHeap();
     new ImageSerializer(this).serialize(fileName);
   }
 
+  public void optimiseHeap() {
+
+    // Prepare the heap to be saved as an image. The operator and constructor
+    // tables are caches that are rebuilt on demand so they are replaced by
+    // empty tables. A full collection then drops everything that is no longer
+    // reachable, including the operations that were only reachable from the
+    // caches. The collection copies values breadth first from the symbol
+    // table, through which the class graph is reached, so that values that
+    // are used together are saved together. The parallel scan is not used
+    // since its workers interleave the values that they copy...
+
+    if (replicating) finishIncrementalGC();
+    operatorTable = mkOpenHashtable(operatorTableSize);
+    constructorTable = mkOpenHashtable(constructorTableSize);
+    invalidateSendCaches();
+    gcOrdered = true;
+    try {
+      fullGC();
+    } finally {
+      gcOrdered = false;
+    }
+  }
+
   public void legacySave(String fileName) {
 
     // Saves a VM image and associated structures in the file.
@@ -9159,6 +11438,24 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     }
   }
 
+  public void profileAllocation(int rate) {
+
+    // Start profiling allocation. A rate of 0 stops the profile...
+
+    allocationProfile = rate > 0 ? new AllocationProfile(this, rate) : null;
+    memory.setProfile(allocationProfile);
+  }
+
+  public void saveAllocationProfile(String file) {
+    try {
+      PrintStream pout = new PrintStream(new BufferedOutputStream(new FileOutputStream(getFile(file))));
+      allocationProfile.print(pout, Integer.MAX_VALUE);
+      pout.close();
+    } catch (IOException ioe) {
+      System.err.println(ioe.toString());
+    }
+  }
+
   public void saveBacktrace() {
     saveBacktrace(currentFrame);
   }
@@ -9265,7 +11562,12 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   void saveHeap(ObjectOutputStream out) {
     try {
-      out.writeObject(words);
+      int[] heap = words.array();
+      if (heap == null) {
+        heap = new int[words.size()];
+        words.read(0, heap, 0, heap.length);
+      }
+      out.writeObject(heap);
       out.writeInt(freePtr);
     } catch (IOException ioe) {
       throw new MachineError(SAVEERR, ioe.getMessage());
@@ -9308,6 +11610,29 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       exitAbnormal();
     }
     new ImageSerializer(this).inflate(fileName);
+    if (!STRING_HASH.equals(header.propertyValue(STRING_HASH_PROPERTY))) {
+
+      // The image was saved by a machine that used a different string
+      // hash function. Every table keyed by strings has its elements in
+      // the wrong buckets. Garbage collection rehashes every reachable
+      // table (see GC.gcPopStack)...
+
+      gc();
+      header.setProperty(STRING_HASH_PROPERTY, STRING_HASH);
+    }
+    openMachineTables();
+  }
+
+  public void openMachineTables() {
+
+    // The tables owned by the machine use the open addressing layout.
+    // Images saved before the layout was introduced contain chained
+    // tables which are converted here...
+
+    if (!isOpenTable(symbolTable)) symbolTable = asOpenHashtable(symbolTable);
+    if (!isOpenTable(operatorTable)) operatorTable = asOpenHashtable(operatorTable);
+    if (!isOpenTable(constructorTable)) constructorTable = asOpenHashtable(constructorTable);
+    if (!isOpenTable(newListenersTable)) newListenersTable = asOpenHashtable(newListenersTable);
   }
 
   public void legacyLoad(String fileName) {
@@ -9434,17 +11759,17 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   void loadHeap(ObjectInputStream in) {
     try {
-      words = (int[]) in.readObject();
+      int[] heap = (int[]) in.readObject();
       freePtr = in.readInt();
-      if (heapSize != words.length) if (heapSize < freePtr + K) {
-        heapSize = words.length;
-        gcWords = new int[heapSize];
-      } else {
-        int[] newWords = new int[heapSize];
-        for (int i = 0; i < freePtr; i++)
-          newWords[i] = words[i];
-        words = newWords;
-      }
+      invalidateSendCaches();
+      invalidateSlotCaches();
+      invalidateDecodedInstrs();
+      if (heapSize != heap.length) if (heapSize < freePtr + K) {
+        heapSize = heap.length;
+        gcWords = newHeap(heapSize);
+      } else heap = Arrays.copyOf(heap, heapSize);
+      words = newHeap(heap);
+      resetGenerations();
     } catch (IOException ioe) {
       throw new MachineError(LOADERR, ioe.getMessage());
     } catch (ClassNotFoundException cnf) {
@@ -9460,6 +11785,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     if (imageFile != null) {
       load(imageFile);
+      setDynamicValue(mkSymbol("Kernel_Symbol_Table"), symbolTable);
       setDynamicValue(mkSymbol("Kernel_stdout"), mkImmediate(INPUT_CHANNEL, 0));
       setDynamicValue(mkSymbol("Kernel_stdin"), mkImmediate(OUTPUT_CHANNEL, 0));
       XOS.imageLoaded();
@@ -9571,9 +11897,12 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     int length = arrayLength(array);
     int index = 0;
-    while (XOS.ready(value(in)) && !XOS.eof(value(in)) && index < length) {
-      int c = XOS.read(value(in));
-      arraySet(array, index++, mkInt(c));
+    byte[] bytes = new byte[Math.min(length, XChannel.BUFFER_SIZE)];
+    while (index < length && XOS.ready(value(in))) {
+      int count = XOS.read(value(in), bytes, 0, Math.min(bytes.length, length - index));
+      if (count == -1) break;
+      for (int i = 0; i < count; i++)
+        arraySet(array, index++, mkInt(bytes[i] & 0xFF));
     }
     return mkInt(index);
   }
@@ -9584,10 +11913,13 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     // of bytes that were read..
 
     int chars = 0;
-    while (XOS.ready(value(in)) && !XOS.eof(value(in))) {
-      int c = XOS.read(value(in));
-      chars++;
-      bufferSet(buffer, bufferSize(buffer), mkInt(c));
+    byte[] bytes = new byte[XChannel.BUFFER_SIZE];
+    while (XOS.ready(value(in))) {
+      int count = XOS.read(value(in), bytes, 0, bytes.length);
+      if (count == -1) break;
+      for (int i = 0; i < count; i++)
+        bufferSet(buffer, bufferSize(buffer), mkInt(bytes[i] & 0xFF));
+      chars = chars + count;
     }
     return mkInt(chars);
   }
@@ -9663,9 +11995,11 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public int readString(int in) {
     StringBuffer s = new StringBuffer();
-    int c;
-    while ((c = XOS.read(value(in))) != -1)
-      s.append((char) c);
+    byte[] bytes = new byte[XChannel.BUFFER_SIZE];
+    int count;
+    while ((count = XOS.read(value(in), bytes, 0, bytes.length)) != -1)
+      for (int i = 0; i < count; i++)
+        s.append((char) (bytes[i] & 0xFF));
     return mkString(s.toString());
   }
 
@@ -9711,7 +12045,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       case NEGINT:
         return intToString(word);
       case BIGINT:
-        return asBigInteger(word).toString();
+        return isLongInteger(word) ? Long.toString(longValue(word)) : asBigInteger(word).toString();
       case STRING:
         return stringToString(word);
       case CODEBOX:
@@ -9738,6 +12072,10 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         return "StringLength(" + value(word) + ")";
       case CODELENGTH:
         return "CodeLength(" + value(word) + ")";
+      case FLOATBITS:
+        return "FloatBits()";
+      case BIGINTLENGTH:
+        return "BigIntLength(" + value(word) + ")";
       case SET:
         return setToString(word, depth);
       case INPUT_CHANNEL:
@@ -9763,7 +12101,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // Translate an instruction to a string.
 
-    switch (tag(instr)) {
+    switch (byte4(instr)) {
       case MKSEQ:
         return "MKSEQ " + value(instr);
       case MKSET:
@@ -9966,8 +12304,22 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         return "ASSOC";
       case RETDOTSELF:
         return "RETDOTSELF " + valueToString(arrayRef(constants, value(instr)));
+      case LOCALDOT:
+        return "LOCALDOT " + byte3(instr) + " " + valueToString(arrayRef(constants, (byte2(instr) << 8) + byte1(instr)));
+      case SELFSEND:
+        return "SELFSEND " + byte2(instr) + " " + valueToString(arrayRef(constants, (byte3(instr) << 8) + byte1(instr)));
+      case PUSHINTADD:
+        return "PUSHINTADD " + value(instr);
+      case PUSHINTSUB:
+        return "PUSHINTSUB " + value(instr);
+      case EQLSKPF:
+        return "EQLSKPF " + value(instr);
+      case LESSSKPF:
+        return "LESSSKPF " + value(instr);
+      case GRESKPF:
+        return "GRESKPF " + value(instr);
       default:
-        return "<Unknown instruction " + tag(instr) + ">";
+        return "<Unknown instruction " + byte4(instr) + ">";
     }
   }
 
@@ -10302,6 +12654,19 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     }
   }
 
+  public void setWriteBuffer(int channel, int size, boolean autoFlush) {
+
+    // Implements Kernel_setWriteBuffer. Writes to the channel are collected
+    // in a buffer of the given size and written when the buffer is full,
+    // when the channel is flushed and, if autoFlush is set, at the end of
+    // each line. Data channels are not buffered because the data is written
+    // to the underlying stream without passing through the channel...
+
+    if (XOS.isDataOutputChannel(value(channel)))
+      throw new MachineError(TYPE, "Machine.setWriteBuffer: cannot buffer a data output channel " + valueToString(channel));
+    else XOS.bufferOutputChannel(value(channel), size, autoFlush);
+  }
+
   public int getElement(CharSequence name) {
 
     // Used by the serializer...
@@ -10364,8 +12729,18 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
         return stringHashCode(value);
       case SET:
         return setHashCode(value);
+      case FLOAT:
+        return Float.floatToIntBits(asFloat(value)) & DATA;
+      case BIGINT:
+        return bigIntHashCode(value);
       default:
-        return ptr(value);
+
+        // Pointers above 16M words carry segment bits that do not fit in
+        // an XMF int. They are folded into the low bits so that hash codes
+        // returned by Kernel_hashCode agree with the tables in the VM...
+
+        int ptr = ptr(value);
+        return (ptr ^ (ptr >>> 24)) & DATA;
     }
   }
 
@@ -10414,12 +12789,13 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     // initialise the data structures.
     if (imageFile == null) {
-      words = new int[heapSize];
+      words = newHeap(heapSize);
       valueStack = new ValueStack(stackSize);
       threads = new Thread("INIT", valueStack, 0, 0);
     }
-    gcWords = new int[heapSize];
+    gcWords = newHeap(heapSize);
     gcLimit = heapSize - freeHeap;
+    if (words != null) resetGenerations();
     initConstants();
   }
 
@@ -10496,9 +12872,9 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
       emptyArray = mkEmptyArray();
       emptySet = mkEmptySet();
       initSymbols();
-      operatorTable = mkHashtable(operatorTableSize);
-      constructorTable = mkHashtable(constructorTableSize);
-      newListenersTable = mkHashtable(newListenersTableSize);
+      operatorTable = mkOpenHashtable(operatorTableSize);
+      constructorTable = mkOpenHashtable(constructorTableSize);
+      newListenersTable = mkOpenHashtable(newListenersTableSize);
       clientInterface = mkHashtable(clientInterfaceSize);
       foreignTypeMapping = mkHashtable(foreignTypeMappingSize);
       foreignMOPMapping = mkHashtable(foreignMOPMappingSize);
@@ -10522,7 +12898,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   }
 
   void initSymbols() {
-    symbolTable = mkHashtable(5000);
+    symbolTable = mkOpenHashtable(5000);
     theSymbolAttributes = mkSymbol("attributes");
     theSymbolDefault = mkSymbol("default");
     theSymbolInit = mkSymbol("init");
@@ -10851,16 +13227,48 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
     int index = 0;
     while (index < args.length) {
-      if (args[index].equals("-heapSize"))
-        heapSize = Integer.parseInt(args[++index]) * K;
+      if (args[index].equals("-heapSize")) {
+        heapSize = Integer.parseInt(args[++index]);
+        if (heapSize < 0 || heapSize > MAXHEAP / K) {
+          System.out.println("Heap size must be at most " + (MAXHEAP / K) + "K words: " + args[index]);
+          exitAbnormal();
+        }
+        heapSize = heapSize * K;
+      }
       else if (args[index].equals("-stackSize"))
         stackSize = Integer.parseInt(args[++index]) * K;
+      else if (args[index].equals("-tableLoad"))
+        tableLoad = Math.max(10, Math.min(90, Integer.parseInt(args[++index])));
       else if (args[index].equals("-initFile"))
         initFile = args[++index];
       else if (args[index].equals("-freeHeap"))
         freeHeap = Integer.parseInt(args[++index]) * K;
+      else if (args[index].equals("-nursery"))
+        nurserySize = Integer.parseInt(args[++index]) * K;
+      else if (args[index].equals("-gcStep"))
+        gcStepSize = Integer.parseInt(args[++index]) * K;
+      else if (args[index].equals("-gcThreads"))
+        gcThreads = Integer.parseInt(args[++index]);
+      else if (args[index].equals("-gcCheck"))
+        gcCheck = true;
+      else if (args[index].equals("-offHeap"))
+        offHeap = true;
+      else if (args[index].equals("-compressImages"))
+        compressImages = true;
+      else if (args[index].equals("-optimiseImages"))
+        optimiseImages = true;
       else if (args[index].equals("-stackDump"))
         stackDump = true;
+      else if (args[index].equals("-profileInstrs"))
+        profileInstrs = true;
+      else if (args[index].equals("-profileAlloc"))
+        profileAllocation(Integer.parseInt(args[++index]));
+      else if (args[index].equals("-jit"))
+        jitThreshold = Integer.parseInt(args[++index]);
+      else if (args[index].equals("-jitCheck"))
+        jitCheck = true;
+      else if (args[index].equals("-quantum"))
+        quantum = Math.max(0, Integer.parseInt(args[++index]));
       else if (args[index].equals("-image"))
         imageFile = args[++index];
       else if (args[index].equals("-arg"))
@@ -10876,9 +13284,22 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
 
   public void displayOptions() {
     System.out.println("Options: ");
-    System.out.println("  -heapSize <SIZE IN K UNITS>");
+    System.out.println("  -heapSize <SIZE IN K UNITS, AT MOST " + (MAXHEAP / K) + ">");
+    System.out.println("  -offHeap");
+    System.out.println("  -compressImages");
+    System.out.println("  -optimiseImages");
     System.out.println("  -stackSize <SIZE IN K UNITS>");
     System.out.println("  -freeHeap <SIZE IN K UNITS>");
+    System.out.println("  -nursery <SIZE IN K UNITS>");
+    System.out.println("  -gcStep <SIZE IN K UNITS>");
+    System.out.println("  -gcThreads <NUMBER OF THREADS>");
+    System.out.println("  -gcCheck");
+    System.out.println("  -tableLoad <PERCENT>");
+    System.out.println("  -profileInstrs");
+    System.out.println("  -profileAlloc <SAMPLE 1 IN N ALLOCATIONS>");
+    System.out.println("  -jit <CALLS BEFORE COMPILATION>");
+    System.out.println("  -jitCheck");
+    System.out.println("  -quantum <INSTRUCTIONS BEFORE PREEMPTION>");
     System.out.println("  -image <IMAGE FILE>");
     System.out.println("  -arg <NAME>:<VALUE>");
   }
@@ -10944,6 +13365,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
   public void resetOperatorTable() {
     hashTableClear(operatorTable);
     hashTableClear(constructorTable);
+    invalidateSendCaches();
   }
 
   public void resetSaveLoad() {
@@ -11110,6 +13532,7 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     Thread t = getThread(value);
     if (t != null) {
       if (t.state() == Thread.SLEEPING) {
+        XOS.cancelWake(t);
         t.wake(result);
         XOS.schedule(t);
       }
@@ -11300,28 +13723,45 @@ public final class Machine implements Words, Constants, ObjectProperties, Daemon
     return foreignFuns;
   }
 
-  public int[] getHeap(int minSize) {
+  public Heap getHeap(int minSize) {
     if (minSize > heapSize) {
-      heapSize = minSize + (1000 * K);
+      heapSize = Math.min(MAXHEAP, minSize + (1000 * K));
       gcLimit = heapSize - (10 * K);
     }
-    if (words == null || words.length < heapSize) {
-      words = new int[heapSize];
-      gcWords = new int[heapSize];
+    if (words == null || words.size() < heapSize) {
+      words = newHeap(heapSize);
+      gcWords = newHeap(heapSize);
+      resetGenerations();
     }
     return words;
   }
 
-  public int[] getHeap() {
+  public Heap getHeap() {
     return words;
   }
 
+  private Heap newHeap(int size) {
+
+    // Returns a heap of the given size held in an array or outside
+    // the Java heap (see offHeap)...
+
+    return offHeap ? new DirectHeap(size) : new ArrayHeap(size);
+  }
+
+  private Heap newHeap(int[] words) {
+    if (!offHeap) return new ArrayHeap(words);
+    Heap heap = new DirectHeap(words.length);
+    heap.write(words, 0, 0, words.length);
+    return heap;
+  }
+
   public void setHeader(Header header) {
     this.header = header;
   }
 
   public void setFreePtr(int freePtr) {
     this.freePtr = freePtr;
+    resetGenerations();
   }
 
   public int getOpenFrame() {
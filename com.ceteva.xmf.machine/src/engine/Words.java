@@ -12,10 +12,28 @@ public interface Words {
 
 	public final static int BYTE4 = 0xFF000000;
 	
+	// The TAG part of a machine word is the type of the word. The top two
+	// bits of the top byte are not used by tags...
+
+	public final static int TAG = 0x3F000000;
+	
 	// The PTR part of a machine word is an address in the heap...
 
 	public final static int PTR = BYTE1 | BYTE2 | BYTE3;
 	
+	// Heap addresses above PTR are possible. The top bits of an address are
+	// the segment of the heap and are held in the top two bits of a pointer
+	// word. Shifting the word right by SEGMENTSHIFT moves them to SEGMENTPTR.
+	// A pointer word has six bits of tag and 26 bits of address, so the heap
+	// cannot be larger than MAXHEAP words (256MB). Larger heaps would need
+	// wider machine words...
+
+	public final static int SEGMENTSHIFT = 6;
+
+	public final static int SEGMENTPTR = 0x03000000;
+
+	public final static int MAXHEAP = 1 << 26;
+	
 	// The DATA part of a machine word is not generally a heap address...
 
 	public final static int DATA = BYTE1 | BYTE2 | BYTE3;
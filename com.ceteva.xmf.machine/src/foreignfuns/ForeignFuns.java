@@ -38,6 +38,7 @@ import gc.AllSubClasses;
 import gc.GC;
 import threads.Thread;
 import util.Unify;
+import values.AllocationProfile;
 import values.Serializer;
 import values.Value;
 import xjava.XJ;
@@ -61,6 +62,7 @@ public class ForeignFuns implements Value, Instr, Errors {
 
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "gc", 0));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_addAtt", 3));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_allocProfile", 0));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_allInstances", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_allSubClasses", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_arrayDaemons", 1));
@@ -230,6 +232,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_isDir", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_isOlder", 2));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_lineCount", 2));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_liveProfile", 0));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_load", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_load3_tmp", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_local", 1));
@@ -270,6 +273,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_operatorPrecedenceList", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_patternMatch", 2));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_peek", 1));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_profileAlloc", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_readString", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_readVector", 2));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_ready", 1));
@@ -287,6 +291,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_save", 2));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_save2", 3));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_save3_tmp", 3));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_saveAllocProfile", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_saxInputChannel", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_self", 0));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_sendForeignInstance", 3));
@@ -304,6 +309,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_setSlotVisibility", 3));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_setTypes", 26));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_setUndoSize", 1));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_setWriteBuffer", 3));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_size", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_sin", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_slotNames", 1));
@@ -330,6 +336,9 @@ public class ForeignFuns implements Value, Instr, Errors {
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_threadKill", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_threadState", 1));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_threadNext", 1));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_threadInstrs", 1));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_threadPriority", 1));
+    addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_threadSetPriority", 2));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_time", 0));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_timeAdd", 2));
     addToTable(machine, table, new ForeignFun("foreignfuns.ForeignFuns", "Kernel_timeDifference", 2));
@@ -402,20 +411,23 @@ public class ForeignFuns implements Value, Instr, Errors {
 
   public static void gc(Machine machine) {
 
-    // Cause the machine to collect garbage.
+    // Cause the machine to collect all garbage.
 
-    machine.gc();
+    machine.fullGC();
     machine.popStack();
     machine.pushStack(Machine.trueValue);
     machine.popFrame();
   }
 
   public static long javaTime(Machine machine, int machineTime) {
-    int hours = Machine.value(machine.at(machineTime, 0));
-    int mins = Machine.value(machine.at(machineTime, 1));
-    int secs = Machine.value(machine.at(machineTime, 2));
-    int millis = Machine.value(machine.at(machineTime, 3));
-    return (long) ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F) + (secs * 1000F) + millis);
+
+    // The hours component may have overflowed into a big integer...
+
+    long hours = machine.longValue(machine.at(machineTime, 0));
+    long mins = machine.longValue(machine.at(machineTime, 1));
+    long secs = machine.longValue(machine.at(machineTime, 2));
+    long millis = machine.longValue(machine.at(machineTime, 3));
+    return (hours * 60 * 60 * 1000L) + (mins * 60 * 1000L) + (secs * 1000L) + millis;
   }
 
   public static void Kernel_addAtt(Machine machine) {
@@ -433,6 +445,17 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_allocProfile(Machine machine) {
+
+    // Returns the allocation sites that have been sampled as a sequence
+    // of [site,samples,words] ranked by words or the empty sequence when
+    // allocation is not being profiled...
+
+    AllocationProfile profile = machine.allocationProfile;
+    machine.pushStack(profile == null ? Machine.nilValue : profile.data());
+    machine.popFrame();
+  }
+
   public static void Kernel_allInstances(Machine machine) {
     int types = machine.frameLocal(0);
     int length = machine.consLength(types);
@@ -642,7 +665,7 @@ public class ForeignFuns implements Value, Instr, Errors {
   public static void Kernel_ceiling(Machine machine) {
     int f = machine.frameLocal(0);
     if (Machine.isFloat(f)) {
-      machine.pushStack(Machine.mkInt((int) Math.ceil(Double.parseDouble(machine.valueToString(f)))));
+      machine.pushStack(Machine.mkInt((int) Math.ceil(machine.asFloat(f))));
       machine.popFrame();
     } else error(TYPE, machine, "Kernel_ceiling expects a float " + machine.valueToString(f));
   }
@@ -720,7 +743,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     int codeBox = machine.frameLocal(0);
     int index = Machine.value(machine.frameLocal(1));
     int code = machine.codeBoxInstrs(codeBox);
-    machine.pushStack(Machine.mkInt(Machine.tag(machine.codeRef(code, index))));
+    machine.pushStack(Machine.mkInt(Machine.byte4(machine.codeRef(code, index))));
     machine.popFrame();
   }
 
@@ -858,7 +881,7 @@ public class ForeignFuns implements Value, Instr, Errors {
   public static void Kernel_cos(Machine machine) {
     int angle = machine.frameLocal(0);
     if (Machine.isFloat(angle)) {
-      float f = Float.parseFloat(machine.valueToString(angle));
+      float f = machine.asFloat(angle);
       double radians = (Math.PI / 180) * f;
       machine.pushStack(machine.mkFloat(Math.cos(radians)));
       machine.popFrame();
@@ -1053,14 +1076,12 @@ public class ForeignFuns implements Value, Instr, Errors {
   }
 
   public static void Kernel_delay(Machine machine) {
-	  int millis = machine.frameLocal(0);
-	  int milliseconds = Machine.value(millis);
-	  try {
-		  java.lang.Thread.sleep(milliseconds);
-	  } catch (InterruptedException ie) {
-		  
-	  }
-	  machine.popFrame();
+    // Only the current thread waits. The other threads run until it wakes.
+    int millis = machine.frameLocal(0);
+    if (Machine.isInt(millis)) {
+      machine.popFrame();
+      machine.delay(Machine.value(millis));
+    } else error(TYPE, machine, "Kernel_delay: expecting an int number of milliseconds: " + machine.valueToString(millis));
   }
 
   public static void Kernel_deleteFile(Machine machine) {
@@ -1233,7 +1254,7 @@ public class ForeignFuns implements Value, Instr, Errors {
   public static void Kernel_floor(Machine machine) {
     int f = machine.frameLocal(0);
     if (Machine.isFloat(f)) {
-      machine.pushStack(Machine.mkInt((int) Math.floor(Double.parseDouble(machine.valueToString(f)))));
+      machine.pushStack(machine.floatFloor(f));
       machine.popFrame();
     } else error(TYPE, machine, "Kernel_floor expects a float " + machine.valueToString(f));
   }
@@ -1844,6 +1865,18 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_liveProfile(Machine machine) {
+
+    // Collects the heap and returns the live objects as a sequence of
+    // [classifier,objects,words] ranked by words or the empty sequence
+    // when allocation is not being profiled...
+
+    AllocationProfile profile = machine.allocationProfile;
+    if (profile != null) machine.takeCensus();
+    machine.pushStack(profile == null ? Machine.nilValue : profile.liveData());
+    machine.popFrame();
+  }
+
   public static void Kernel_load(Machine machine) {
     try {
       int source = machine.frameLocal(0);
@@ -2171,6 +2204,16 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_profileAlloc(Machine machine) {
+
+    // Profile one in every n allocations. Profiling stops when n is 0...
+
+    int n = machine.frameLocal(0);
+    machine.profileAllocation(Machine.value(n));
+    machine.pushStack(Machine.trueValue);
+    machine.popFrame();
+  }
+
   public static void Kernel_random(Machine machine) {
     Random r = new Random();
     machine.pushStack(machine.mkFloat(r.nextFloat()));
@@ -2262,7 +2305,7 @@ public class ForeignFuns implements Value, Instr, Errors {
   public static void Kernel_round(Machine machine) {
     int f = machine.frameLocal(0);
     if (Machine.isFloat(f)) {
-      machine.pushStack(Machine.mkInt(Math.round(Float.parseFloat(machine.valueToString(f)))));
+      machine.pushStack(machine.floatRound(f));
       machine.popFrame();
     } else error(TYPE, machine, "Kernel_round expects a float " + machine.valueToString(f));
   }
@@ -2314,6 +2357,13 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_saveAllocProfile(Machine machine) {
+    String file = machine.valueToString(machine.frameLocal(0));
+    if (machine.allocationProfile != null) machine.saveAllocationProfile(file);
+    machine.pushStack(Machine.trueValue);
+    machine.popFrame();
+  }
+
   public static void Kernel_saxInputChannel(Machine machine) {
     int in = machine.frameLocal(0);
     machine.pushStack(machine.mkSAXInputChannel(in));
@@ -2503,10 +2553,24 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_setWriteBuffer(Machine machine) {
+    // Buffer the writes to an output channel. A size of 0 writes directly.
+    int channel = machine.frameLocal(0);
+    int size = machine.frameLocal(1);
+    int autoFlush = machine.frameLocal(2);
+    if (Machine.isOutputChannel(channel))
+      if (Machine.isInt(size) && Machine.isBool(autoFlush)) {
+        machine.setWriteBuffer(channel, Machine.value(size), autoFlush == Machine.trueValue);
+        machine.pushStack(channel);
+        machine.popFrame();
+      } else error(TYPE, machine, "Kernel_setWriteBuffer: expecting an int size and a boolean: " + machine.valueToString(size));
+    else error(TYPE, machine, "Kernel_setWriteBuffer: expecting an output channel: " + machine.valueToString(channel));
+  }
+
   public static void Kernel_sin(Machine machine) {
     int angle = machine.frameLocal(0);
     if (Machine.isFloat(angle)) {
-      float f = Float.parseFloat(machine.valueToString(angle));
+      float f = machine.asFloat(angle);
       double radians = (Math.PI / 180) * f;
       machine.pushStack(machine.mkFloat(Math.sin(radians)));
       machine.popFrame();
@@ -2520,6 +2584,10 @@ public class ForeignFuns implements Value, Instr, Errors {
       machine.pushStack(Machine.mkInt(machine.stringLength(value)));
       machine.popFrame();
       break;
+    case HASHTABLE:
+      machine.pushStack(Machine.mkInt(machine.hashTableSize(value)));
+      machine.popFrame();
+      break;
     default:
       System.out.println("Kernel_size: " + machine.valueToString(value));
       machine.pushStack(value);
@@ -2693,6 +2761,16 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_threadInstrs(Machine machine) {
+    // The number of instructions performed by the thread.
+    int thread = machine.frameLocal(0);
+    Thread t = machine.getThread(thread);
+    if (t != null)
+      machine.pushStack(Machine.mkInt((int) Math.min(t.instructions(), Machine.MAXINT)));
+    else machine.pushStack(Machine.mkInt(-1));
+    machine.popFrame();
+  }
+
   public static void Kernel_threadKill(Machine machine) {
 
     // Not sure whether or not we need to test for being a
@@ -2712,6 +2790,31 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
+  public static void Kernel_threadPriority(Machine machine) {
+    int thread = machine.frameLocal(0);
+    Thread t = machine.getThread(thread);
+    if (t != null)
+      machine.pushStack(Machine.mkInt(t.priority()));
+    else machine.pushStack(Machine.mkInt(-1));
+    machine.popFrame();
+  }
+
+  public static void Kernel_threadSetPriority(Machine machine) {
+    // Priorities range from Thread.MIN_PRIORITY to Thread.MAX_PRIORITY and
+    // take effect when the thread is next scheduled. They are not saved in
+    // images.
+    int thread = machine.frameLocal(0);
+    int priority = machine.frameLocal(1);
+    Thread t = machine.getThread(thread);
+    if (t != null)
+      if (Machine.isInt(priority)) {
+        t.setPriority(Machine.value(priority));
+        machine.pushStack(thread);
+        machine.popFrame();
+      } else error(TYPE, machine, "Kernel_threadSetPriority: expecting an int priority: " + machine.valueToString(priority));
+    else error(TYPE, machine, "Kernel_threadSetPriority: expecting a thread: " + machine.valueToString(thread));
+  }
+
   public static void Kernel_threadState(Machine machine) {
     int thread = machine.frameLocal(0);
     Thread t = machine.getThread(thread);
@@ -2732,12 +2835,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     int time2 = machine.frameLocal(1);
     long millis1 = javaTime(machine, time1);
     long millis2 = javaTime(machine, time2);
-    long time = millis1 + millis2;
-    int hours = (int) (time / (60 * 60 * 1000F));
-    int mins = (int) ((time - (hours * 60 * 60 * 1000F)) / (60 * 1000F));
-    int secs = (int) ((time - ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F))) / 1000F);
-    int millis = (int) (time - ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F) + (secs * 1000F)));
-    machine.pushStack(machineTime(machine, hours, mins, secs, millis));
+    machine.pushStack(machineTime(machine, millis1 + millis2));
     machine.popFrame();
   }
 
@@ -2746,12 +2844,7 @@ public class ForeignFuns implements Value, Instr, Errors {
     int time2 = machine.frameLocal(1);
     long millis1 = javaTime(machine, time1);
     long millis2 = javaTime(machine, time2);
-    long time = millis1 - millis2;
-    int hours = (int) (time / (60 * 60 * 1000F));
-    int mins = (int) ((time - (hours * 60 * 60 * 1000F)) / (60 * 1000F));
-    int secs = (int) ((time - ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F))) / 1000F);
-    int millis = (int) (time - ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F) + (secs * 1000F)));
-    machine.pushStack(machineTime(machine, hours, mins, secs, millis));
+    machine.pushStack(machineTime(machine, millis1 - millis2));
     machine.popFrame();
   }
 
@@ -2887,21 +2980,29 @@ public class ForeignFuns implements Value, Instr, Errors {
     machine.popFrame();
   }
 
-  public static int machineTime(Machine machine, int hours, int mins, int secs, int millis) {
+  public static int machineTime(Machine machine, long hours, int mins, int secs, int millis) {
     int machineTime = Machine.nilValue;
     machineTime = machine.mkCons(Machine.mkInt(millis), machineTime);
     machineTime = machine.mkCons(Machine.mkInt(secs), machineTime);
     machineTime = machine.mkCons(Machine.mkInt(mins), machineTime);
-    machineTime = machine.mkCons(Machine.mkInt(hours), machineTime);
+    machineTime = machine.mkCons(machine.mkInteger(hours), machineTime);
     return machineTime;
   }
 
   public static int machineTime(Machine machine, long now, long startTime) {
-    long time = now - startTime;
-    int hours = (int) (time / (60 * 60 * 1000F));
-    int mins = (int) ((time - (hours * 60 * 60 * 1000F)) / (60 * 1000F));
-    int secs = (int) ((time - ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F))) / 1000F);
-    int millis = (int) (time - ((hours * 60 * 60 * 1000F) + (mins * 60 * 1000F) + (secs * 1000F)));
+    return machineTime(machine, now - startTime);
+  }
+
+  public static int machineTime(Machine machine, long time) {
+
+    // Split a duration in milliseconds into hours, minutes, seconds and
+    // milliseconds. The arithmetic is done on longs since floats only
+    // have 24 bits of precision...
+
+    long hours = time / (60 * 60 * 1000L);
+    int mins = (int) ((time / (60 * 1000L)) % 60);
+    int secs = (int) ((time / 1000L) % 60);
+    int millis = (int) (time % 1000L);
     return machineTime(machine, hours, mins, secs, millis);
   }
 
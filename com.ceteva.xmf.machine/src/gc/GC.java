@@ -3,6 +3,7 @@ package gc;
 import threads.Thread;
 import values.Value;
 import values.ValueStack;
+import engine.Heap;
 import engine.Machine;
 
 public class GC implements Value {
@@ -38,8 +39,9 @@ public class GC implements Value {
     if (machine.collected(bigInt))
       return machine.forward(BIGINT, bigInt);
     else {
-      int newString = gcString(bigInt);
-      return Machine.mkPtr(BIGINT, Machine.value(newString));
+      int newBigInt = machine.gcBigInt(bigInt);
+      machine.setForward(bigInt, newBigInt);
+      return newBigInt;
     }
   }
 
@@ -93,34 +95,50 @@ public class GC implements Value {
     // The copied pointer trails the free pointer and
     // refers to the contents of the original heap
     // that must be replaced with newly created elements
-    // in the new heap...
+    // in the new heap. Large heaps are scanned by a number
+    // of threads when the machine allows it...
+
+    ParallelScan scan = machine.parallelScan();
+    if (scan != null && machine.gcCheck)
+      scan.check(this);
+    else if (scan != null)
+      scan.scan();
+    else gcScan(Integer.MAX_VALUE);
+  }
+
+  public boolean gcScan(int limit) {
+
+    // Advance the copied pointer by at least limit words or until it
+    // reaches the free pointer. Returns true when the copy is complete.
+    // Used by incremental collection to bound the length of a pause...
 
     int gcCopiedPtr = machine.getGCCopiedPtr();
-    int[] gcHeap = machine.getGCHeap();
+    Heap gcHeap = machine.getGCHeap();
+    long stopPtr = (long) gcCopiedPtr + limit;
 
-    while (machine.getGCFreePtr() != gcCopiedPtr) {
-      int value = gcHeap[gcCopiedPtr];
+    while (machine.getGCFreePtr() != gcCopiedPtr && gcCopiedPtr < stopPtr) {
+      int value = gcHeap.get(gcCopiedPtr);
       switch (Machine.tag(value)) {
       case ARRAY:
-        gcHeap[gcCopiedPtr++] = gcArray(value);
+        gcHeap.set(gcCopiedPtr++, gcArray(value));
         break;
       case BUFFER:
-        gcHeap[gcCopiedPtr++] = gcBuffer(value);
+        gcHeap.set(gcCopiedPtr++, gcBuffer(value));
         break;
       case BOOL:
         gcCopiedPtr++;
         break;
       case CODE:
-        gcHeap[gcCopiedPtr++] = gcCode(value);
+        gcHeap.set(gcCopiedPtr++, gcCode(value));
         break;
       case CODEBOX:
-        gcHeap[gcCopiedPtr++] = gcCodeBox(value);
+        gcHeap.set(gcCopiedPtr++, gcCodeBox(value));
         break;
       case CODELENGTH:
         gcCopiedPtr = gcCopiedPtr + Machine.value(value) + 1;
         break;
       case CONT:
-        gcHeap[gcCopiedPtr++] = gcCont(value);
+        gcHeap.set(gcCopiedPtr++, gcCont(value));
         break;
       case FOREIGNFUN:
         gcCopiedPtr++;
@@ -129,17 +147,17 @@ public class GC implements Value {
         gcCopiedPtr++;
         break;
       case FUN:
-        gcHeap[gcCopiedPtr++] = gcFun(value);
+        gcHeap.set(gcCopiedPtr++, gcFun(value));
         break;
       case INT:
       case NEGINT:
         gcCopiedPtr++;
         break;
       case OBJ:
-        gcHeap[gcCopiedPtr++] = gcObj(value);
+        gcHeap.set(gcCopiedPtr++, gcObj(value));
         break;
       case STRING:
-        gcHeap[gcCopiedPtr++] = gcString(value);
+        gcHeap.set(gcCopiedPtr++, gcString(value));
         break;
       case STRINGLENGTH:
         gcCopiedPtr = gcCopiedPtr + (Machine.value(value) / 4) + 1;
@@ -148,16 +166,16 @@ public class GC implements Value {
         gcCopiedPtr++;
         break;
       case CONS:
-        gcHeap[gcCopiedPtr++] = gcCons(value);
+        gcHeap.set(gcCopiedPtr++, gcCons(value));
         break;
       case NIL:
         gcCopiedPtr++;
         break;
       case SYMBOL:
-        gcHeap[gcCopiedPtr++] = gcSymbol(value);
+        gcHeap.set(gcCopiedPtr++, gcSymbol(value));
         break;
       case SET:
-        gcHeap[gcCopiedPtr++] = gcSet(value);
+        gcHeap.set(gcCopiedPtr++, gcSet(value));
         break;
       case INPUT_CHANNEL:
       case OUTPUT_CHANNEL:
@@ -168,16 +186,26 @@ public class GC implements Value {
         gcCopiedPtr++;
         break;
       case HASHTABLE:
-        gcHeap[gcCopiedPtr++] = gcHashTable(value);
+        gcHeap.set(gcCopiedPtr++, gcHashTable(value));
         break;
       case FLOAT:
-        gcHeap[gcCopiedPtr++] = gcFloat(value);
+        gcHeap.set(gcCopiedPtr++, gcFloat(value));
+        break;
+      case FLOATBITS:
+        gcCopiedPtr = gcCopiedPtr + FLOAT_SIZE;
+        break;
+      case BIGINTLENGTH:
+        gcCopiedPtr = gcCopiedPtr + BIGINT_HEADER + Machine.value(value);
+        break;
+      case OPENTABLE:
+        // Open table headers and the markers for free key slots...
+        gcCopiedPtr++;
         break;
       case DAEMON:
-        gcHeap[gcCopiedPtr++] = gcDaemon(value);
+        gcHeap.set(gcCopiedPtr++, gcDaemon(value));
         break;
       case FORWARDREF:
-        gcHeap[gcCopiedPtr++] = gcForwardRef(value);
+        gcHeap.set(gcCopiedPtr++, gcForwardRef(value));
         break;
       case ILLEGAL:
         // Arises when a continuation is garbage collected.
@@ -186,13 +214,14 @@ public class GC implements Value {
         gcCopiedPtr++;
         break;
       case BIGINT:
-        gcHeap[gcCopiedPtr++] = gcBigInt(value);
+        gcHeap.set(gcCopiedPtr++, gcBigInt(value));
         break;
       default:
         System.err.println("gcComplete: unknown value tag: " + Machine.tag(value));
       }
     }
     machine.setGCCopiedPtr(gcCopiedPtr);
+    return machine.getGCFreePtr() == gcCopiedPtr;
   }
 
   public int gcCons(int cons) {
@@ -279,6 +308,8 @@ public class GC implements Value {
       return gcHashTable(word);
     case FLOAT:
       return gcFloat(word);
+    case BIGINT:
+      return gcBigInt(word);
     case DAEMON:
       return gcDaemon(word);
     case FORWARDREF:
@@ -303,11 +334,7 @@ public class GC implements Value {
     if (machine.collected(f))
       return machine.forward(FLOAT, f);
     else {
-      int str = machine.floatString(f);
-      machine.swapHeap();
-      int newFloat = machine.mkFloat();
-      machine.floatSetString(newFloat, str);
-      machine.swapHeap();
+      int newFloat = machine.gcFloat(f);
       machine.setForward(f, newFloat);
       return newFloat;
     }
@@ -361,7 +388,7 @@ public class GC implements Value {
     else {
       int newTable = machine.gcTable(table);
       machine.setForward(table, newTable);
-      machine.pushStack(newTable);
+      machine.gcRehashLater(newTable);
       return newTable;
     }
   }
@@ -391,10 +418,7 @@ public class GC implements Value {
     if (machine.collected(set))
       return machine.forward(SET, set);
     else {
-      int elements = machine.setElements(set);
-      machine.swapHeap();
-      int newSet = machine.mkSet(elements);
-      machine.swapHeap();
+      int newSet = machine.gcCopySet(set);
       machine.setForward(set, newSet);
       return newSet;
     }
@@ -0,0 +1,514 @@
+package gc;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import engine.Constants;
+import engine.Machine;
+import values.Value;
+
+public class ParallelScan implements Value, Constants {
+
+  // This class completes a collection in the same way as GC.gcComplete()
+  // but uses a number of worker threads. The roots have already been copied
+  // into the GC heap by the machine. The workers then copy everything that
+  // is reachable from the copied values. Each value that may be copied has
+  // two bits in the claims: a worker claims a value by setting the first
+  // bit with a compare and swap and sets the second bit once it has replaced
+  // the header of the value with a forward pointer. Each worker allocates
+  // in the GC heap from its own buffer and keeps a stack of the ranges of
+  // the GC heap that it must scan. Workers with a lot of work to do share
+  // some of it with idle workers by publishing batches of ranges that the
+  // idle workers steal. The unused part of an allocation buffer is filled
+  // with undefined words so that the GC heap can be walked as before.
+  //
+  // Values are copied word for word. Legacy floats and big integers are not
+  // supported, so the machine only uses a parallel scan once the heap has
+  // been collected since it was loaded.
+  //
+  // When the machine checks collections (-gcCheck) the workers scan copies
+  // of the heaps and the collection is completed by the GC. The two copies
+  // of the values must then be the same apart from their addresses.
+
+  static final int              CLAIMED      = 1;
+
+  static final int              FORWARDED    = 2;
+
+  static final int              minShare     = 64;
+
+  Machine                       machine;
+
+  Worker[]                      workers;
+
+  ExecutorService               executor;
+
+  AtomicInteger                 idle         = new AtomicInteger();
+
+  AtomicInteger                 top          = new AtomicInteger();
+
+  int[]                         words;
+
+  int[]                         gcWords;
+
+  int                           boundary;
+
+  AtomicIntegerArray            claims;
+
+  volatile boolean              failed;
+
+  public ParallelScan(Machine machine, int threads) {
+    this.machine = machine;
+    workers = new Worker[threads];
+    for (int i = 0; i < threads; i++)
+      workers[i] = new Worker();
+    executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "XMF GC");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  public int threads() {
+    return workers.length;
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public void scan() {
+
+    // Scan the heaps of the machine and then update the machine. The hash
+    // tables that have been copied must be rehashed at the end of the
+    // collection...
+
+    int top = scan(machine.getHeap().array(), machine.getGCHeap().array());
+    machine.setGCFreePtr(top);
+    machine.setGCCopiedPtr(top);
+    for (Worker worker : workers) {
+      for (int i = 0; i < worker.tableCount; i++)
+        machine.gcRehashLater(worker.tables[i]);
+      worker.tableCount = 0;
+    }
+  }
+
+  public void check(GC gc) {
+
+    // Scan copies of the heaps and then let the GC complete the collection.
+    // Each value copied by the GC must have been copied once by the workers
+    // and the copies must be the same apart from the addresses...
+
+    int[] words = machine.getHeap().array().clone();
+    int[] gcWords = machine.getGCHeap().array().clone();
+    int from = machine.getGCCopiedPtr();
+    int to = machine.getGCFreePtr();
+    scan(words, gcWords);
+    for (Worker worker : workers)
+      worker.tableCount = 0;
+    gc.gcScan(Integer.MAX_VALUE);
+    String error = compare(gcWords, machine.getGCHeap().array(), from, to, machine.getGCFreePtr());
+    machine.gcChecked(error);
+  }
+
+  private int scan(int[] words, int[] gcWords) {
+
+    // Share the values copied so far between the workers and run the
+    // workers until they are all idle. Returns the free pointer of the
+    // GC heap...
+
+    this.words = words;
+    this.gcWords = gcWords;
+    boundary = machine.getGCBoundary();
+    claims = new AtomicIntegerArray(((words.length - boundary) >> 4) + 1);
+    top.set(machine.getGCFreePtr());
+    idle.set(0);
+    failed = false;
+    shareRoots(machine.getGCCopiedPtr(), machine.getGCFreePtr());
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i = 1; i < workers.length; i++)
+      futures.add(executor.submit(workers[i]));
+    Throwable error = null;
+    try {
+      workers[0].run();
+    } catch (Throwable t) {
+      error = t;
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (Throwable t) {
+        if (error == null) error = t;
+      }
+    }
+    this.words = null;
+    this.gcWords = null;
+    claims = null;
+    if (error != null) throw new Error("parallel collection failed: " + error);
+    return top.get();
+  }
+
+  private String compare(int[] heap1, int[] heap2, int from, int to, int top) {
+
+    // Walk the values copied into two GC heaps from the same roots. The
+    // roots are at the same addresses in both heaps. A pointer to a copied
+    // value is paired with the pointer at the same place in the other heap
+    // and each address may only be paired once. Returns null if the values
+    // are the same or a description of the first difference...
+
+    int[] pairs1 = new int[heap1.length];
+    int[] pairs2 = new int[heap2.length];
+    int[] pending = new int[1024];
+    int pendingTop = 0;
+    int copied = to;
+    int ptr = from;
+    while (ptr < to) {
+      pairs1[ptr] = ptr + 1;
+      pairs2[ptr] = ptr + 1;
+      ptr = ptr + Machine.heapUnitSize(heap1[ptr]);
+    }
+    int ptr1 = from;
+    int ptr2 = from;
+    int end = to;
+    while (true) {
+      while (ptr1 < end) {
+        int word1 = heap1[ptr1];
+        int word2 = heap2[ptr2];
+        if (Machine.isPointer(word1)) {
+          if (!Machine.isPointer(word2) || Machine.tag(word1) != Machine.tag(word2)) return "different words at " + ptr2;
+          int value1 = Machine.ptr(word1);
+          int value2 = Machine.ptr(word2);
+          if (value1 < boundary || value2 < boundary) {
+            if (value1 != value2) return "different uncopied values at " + ptr2;
+          } else if (pairs1[value1] == 0 && pairs2[value2] == 0) {
+            pairs1[value1] = value2 + 1;
+            pairs2[value2] = value1 + 1;
+            if (pendingTop + 3 > pending.length) {
+              int[] newPending = new int[pending.length * 2];
+              System.arraycopy(pending, 0, newPending, 0, pendingTop);
+              pending = newPending;
+            }
+            pending[pendingTop++] = value1;
+            pending[pendingTop++] = value2;
+            pending[pendingTop++] = Machine.tag(word1);
+          } else if (pairs1[value1] != value2 + 1 || pairs2[value2] != value1 + 1) return "values copied more than once at " + ptr2;
+          ptr1++;
+          ptr2++;
+        } else {
+          int size = Machine.heapUnitSize(word1);
+          for (int i = 0; i < size; i++)
+            if (heap1[ptr1 + i] != heap2[ptr2 + i]) return "different data at " + (ptr2 + i);
+          ptr1 = ptr1 + size;
+          ptr2 = ptr2 + size;
+        }
+      }
+      if (pendingTop == 0) break;
+      int tag = pending[--pendingTop];
+      ptr2 = pending[--pendingTop];
+      ptr1 = pending[--pendingTop];
+      int size = valueSize(tag, heap1[ptr1]);
+      end = ptr1 + size;
+      copied = copied + size;
+    }
+    if (copied != top) return (top - copied) + " words copied by the GC were not copied by the workers";
+    return null;
+  }
+
+  private void shareRoots(int from, int to) {
+
+    // The copied roots are split into ranges at the boundaries of the units
+    // of the heap and dealt out to the workers...
+
+    int next = 0;
+    int start = from;
+    int ptr = from;
+    while (ptr < to) {
+      ptr = ptr + Machine.heapUnitSize(gcWords[ptr]);
+      if (ptr - start >= GCSCANCHUNK || ptr >= to) {
+        workers[next].shared.add(new int[] { start, Math.min(ptr, to) });
+        next = (next + 1) % workers.length;
+        start = ptr;
+      }
+    }
+  }
+
+  static int valueSize(int tag, int header) {
+
+    // The number of words that are copied for a value given its header...
+
+    switch (tag) {
+      case ARRAY:
+        return Machine.value(header) + ARRAY_HEADER;
+      case BUFFER:
+        return BUFFER_SIZE;
+      case CODE:
+        return Machine.value(header) + CODE_HEADER;
+      case CODEBOX:
+        return CODEBOX_SIZE;
+      case CONT:
+        return Machine.value(header) + CONT_HEADER;
+      case FUN:
+        return FUN_SIZE;
+      case OBJ:
+        return OBJ_SIZE;
+      case STRING:
+        return STRING_HEADER + (Machine.value(header) / 4) + 1;
+      case CONS:
+        return CONS_SIZE;
+      case SET:
+        return SET_SIZE;
+      case SYMBOL:
+        return SYMBOL_SIZE;
+      case HASHTABLE:
+        return Machine.tag(header) == OPENTABLE ? OPENTABLE_SIZE : Machine.value(header) + ARRAY_HEADER;
+      case FLOAT:
+        return FLOAT_SIZE;
+      case BIGINT:
+        return BIGINT_HEADER + Machine.value(header);
+      case DAEMON:
+        return DAEMON_SIZE;
+      case FORWARDREF:
+        return FORWARDREF_SIZE;
+      default:
+        throw new Error("unknown value tag: " + tag);
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    // Each worker scans the values that it copies into its allocation buffer
+    // in the same way as GC.gcScan() scans the GC heap. Other ranges of the
+    // GC heap that must be scanned by this worker are kept in the stack.
+    // Ranges in the stack are private, batches of ranges in the shared deque
+    // can be stolen by other workers...
+
+    int[]                         stack      = new int[1024];
+
+    int                           stackTop   = 0;
+
+    ConcurrentLinkedDeque<int[]>  shared     = new ConcurrentLinkedDeque<int[]>();
+
+    int                           tlabPtr    = 0;
+
+    int                           tlabEnd    = 0;
+
+    int                           scanPtr    = 0;
+
+    int[]                         tables     = new int[16];
+
+    int                           tableCount = 0;
+
+    public void run() {
+      try {
+        while (!failed) {
+          if (scanPtr < tlabPtr)
+            scanBuffer();
+          else if (stackTop > 0) {
+            stackTop = stackTop - 2;
+            scan(stack[stackTop], stack[stackTop + 1]);
+          } else {
+            int[] batch = shared.pollLast();
+            if (batch != null)
+              load(batch);
+            else if (!steal()) break;
+          }
+        }
+      } catch (Error e) {
+        failed = true;
+        throw e;
+      } catch (RuntimeException e) {
+        failed = true;
+        throw e;
+      } finally {
+        retire();
+        tlabPtr = 0;
+        tlabEnd = 0;
+        scanPtr = 0;
+        stackTop = 0;
+      }
+    }
+
+    private boolean steal() {
+
+      // Look for work published by the other workers. The scan is complete
+      // when every worker is idle since only busy workers publish work...
+
+      idle.incrementAndGet();
+      while (true) {
+        for (Worker worker : workers) {
+          if (worker != this && !worker.shared.isEmpty()) {
+            idle.decrementAndGet();
+            int[] batch = worker.shared.pollFirst();
+            if (batch != null) {
+              load(batch);
+              return true;
+            }
+            idle.incrementAndGet();
+          }
+        }
+        if (idle.get() == workers.length || failed) return false;
+        Thread.yield();
+      }
+    }
+
+    private void load(int[] batch) {
+      for (int i = 0; i < batch.length; i = i + 2)
+        push(batch[i], batch[i + 1]);
+    }
+
+    private void share() {
+
+      // Called when other workers are idle. The unscanned part of the buffer
+      // is moved to the stack and the oldest half of the stack is published
+      // since it is likely to lead to the most work...
+
+      if (tlabPtr - scanPtr >= minShare) {
+        push(scanPtr, tlabPtr);
+        scanPtr = tlabPtr;
+      }
+      int length = (stackTop / 4) * 2;
+      if (length > 0 && shared.isEmpty()) {
+        int[] batch = new int[length];
+        System.arraycopy(stack, 0, batch, 0, length);
+        System.arraycopy(stack, length, stack, 0, stackTop - length);
+        stackTop = stackTop - length;
+        shared.add(batch);
+      }
+    }
+
+    private void push(int from, int to) {
+      if (stackTop + 2 > stack.length) {
+        int[] newStack = new int[stack.length * 2];
+        System.arraycopy(stack, 0, newStack, 0, stackTop);
+        stack = newStack;
+      }
+      stack[stackTop++] = from;
+      stack[stackTop++] = to;
+    }
+
+    private void scanBuffer() {
+
+      // Scan the values copied into the buffer. The scan pointer is advanced
+      // before a value is copied since the copy may replace the buffer...
+
+      int[] heap = gcWords;
+      while (scanPtr < tlabPtr) {
+        int ptr = scanPtr;
+        int value = heap[ptr];
+        if (Machine.isPointer(value)) {
+          scanPtr = ptr + 1;
+          heap[ptr] = copy(value);
+        } else scanPtr = ptr + Machine.heapUnitSize(value);
+        if (idle.get() > 0) share();
+      }
+    }
+
+    private void scan(int ptr, int end) {
+
+      // Walk a range of the GC heap. Pointers are replaced with the addresses
+      // of their copies and raw data is skipped...
+
+      int[] heap = gcWords;
+      while (ptr < end) {
+        int value = heap[ptr];
+        if (Machine.isPointer(value))
+          heap[ptr++] = copy(value);
+        else ptr = ptr + Machine.heapUnitSize(value);
+      }
+      if (idle.get() > 0) share();
+    }
+
+    private int copy(int word) {
+
+      // Returns the address of the copy of a value, copying it if no other
+      // worker has claimed it. A worker that finds a value being copied by
+      // another worker waits for the forward pointer. The header of a value
+      // only changes when it is forwarded, so the header can be read once
+      // the value has been claimed or has been seen to be forwarded. The
+      // roots were forwarded before the workers started. Resolved forward
+      // references are replaced by their values...
+
+      int tag = Machine.tag(word);
+      int ptr = Machine.ptr(word);
+      if (ptr < boundary) return word;
+      int header = words[ptr];
+      if (Machine.tag(header) == FORWARD) return Machine.mkPtr(tag, Machine.ptr(header));
+      if (tag == FORWARDREF && words[ptr + 1] != undefinedValue) return copy(words[ptr + 1]);
+      int index = (ptr - boundary) >> 4;
+      int shift = ((ptr - boundary) & 15) << 1;
+      while (true) {
+        int bits = claims.get(index);
+        int claim = (bits >>> shift) & (CLAIMED | FORWARDED);
+        if ((claim & FORWARDED) != 0) return Machine.mkPtr(tag, Machine.ptr(words[ptr]));
+        if (claim == CLAIMED) {
+          Thread.yield();
+          continue;
+        }
+        if (!claims.compareAndSet(index, bits, bits | (CLAIMED << shift))) continue;
+        int size = valueSize(tag, header);
+        int newPtr = alloc(size);
+        gcWords[newPtr] = header;
+        System.arraycopy(words, ptr + 1, gcWords, newPtr + 1, size - 1);
+        words[ptr] = Machine.mkPtr(FORWARD, newPtr);
+        claims.getAndAdd(index, FORWARDED << shift);
+        if (tag == HASHTABLE) remember(Machine.mkPtr(HASHTABLE, newPtr));
+        if (size > GCTLABSIZE / 8) scanLater(tag, newPtr, size);
+        return Machine.mkPtr(tag, newPtr);
+      }
+    }
+
+    private int alloc(int size) {
+
+      // Allocate from the buffer. Large values are allocated directly from
+      // the GC heap so that at most an eighth of a buffer is wasted...
+
+      if (size > GCTLABSIZE / 8) return top.getAndAdd(size);
+      if (tlabPtr + size > tlabEnd) {
+        retire();
+        tlabPtr = top.getAndAdd(GCTLABSIZE);
+        tlabEnd = tlabPtr + GCTLABSIZE;
+        scanPtr = tlabPtr;
+      }
+      int ptr = tlabPtr;
+      tlabPtr = tlabPtr + size;
+      return ptr;
+    }
+
+    private void scanLater(int tag, int ptr, int size) {
+
+      // Large values are not in the buffer. The elements of arrays and
+      // continuations are scanned in chunks that can be shared...
+
+      if (tag == ARRAY || tag == CONT) {
+        for (int from = ptr; from < ptr + size; from = from + GCSCANCHUNK)
+          push(from, Math.min(from + GCSCANCHUNK, ptr + size));
+      } else push(ptr, ptr + size);
+    }
+
+    private void retire() {
+
+      // Push the unscanned part of the buffer and fill the unused part...
+
+      if (scanPtr < tlabPtr) push(scanPtr, tlabPtr);
+      scanPtr = tlabPtr;
+      while (tlabPtr < tlabEnd)
+        gcWords[tlabPtr++] = undefinedValue;
+    }
+
+    private void remember(int table) {
+      if (tableCount == tables.length) {
+        int[] newTables = new int[tables.length * 2];
+        System.arraycopy(tables, 0, newTables, 0, tableCount);
+        tables = newTables;
+      }
+      tables[tableCount++] = table;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package images;
+
+/******************************************************************************
+ *                                                                            *
+ *                            Block Compression                               *
+ *             ------------------------------------------------               *
+ *                                                                            *
+ *  Sections of a compressed image are packed by a fast LZ77 compressor that  *
+ *  uses the LZ4 block format. A block is a sequence of tokens. Each token    *
+ *  has a 4 bit literal length and a 4 bit match length (extended by bytes    *
+ *  of 255 when the length does not fit) followed by the literals and a 2    *
+ *  byte offset back to the match. The last token of a block only has         *
+ *  literals. Matches are found with a hash table of the last position of     *
+ *  each 4 byte sequence.                                                     *
+ *                                                                            *
+ ******************************************************************************/
+
+public class BlockCompressor {
+
+  private static final int MINMATCH     = 4;
+
+  private static final int HASHBITS     = 16;
+
+  private static final int MAXOFFSET    = 0xFFFF;
+
+  // The last LASTLITERALS bytes are always literals and no match starts
+  // in the last MFLIMIT bytes...
+
+  private static final int LASTLITERALS = 5;
+
+  private static final int MFLIMIT      = 12;
+
+  public static int maxPackedLength(int length) {
+
+    // The largest packed block for a block of length bytes...
+
+    return length + (length / 255) + 16;
+  }
+
+  public static int pack(byte[] src, int length, byte[] dst) {
+
+    // Pack length bytes of src into dst and return the packed length. The
+    // destination must have room for maxPackedLength(length) bytes...
+
+    int[] table = new int[1 << HASHBITS];
+    int matchLimit = length - LASTLITERALS;
+    int anchor = 0;
+    int ip = 1;
+    int op = 0;
+    while (ip < length - MFLIMIT) {
+      int sequence = readInt(src, ip);
+      int hash = (sequence * 0x9E3779B1) >>> (32 - HASHBITS);
+      int ref = table[hash];
+      table[hash] = ip;
+      if (ip - ref <= MAXOFFSET && readInt(src, ref) == sequence) {
+        while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int matchLength = MINMATCH;
+        while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength])
+          matchLength++;
+        op = writeToken(dst, op, src, anchor, ip - anchor, matchLength - MINMATCH);
+        dst[op++] = (byte) (ip - ref);
+        dst[op++] = (byte) ((ip - ref) >>> 8);
+        if (matchLength - MINMATCH >= 15) op = writeLength(dst, op, matchLength - MINMATCH - 15);
+        ip = ip + matchLength;
+        anchor = ip;
+      } else ip++;
+    }
+    return writeToken(dst, op, src, anchor, length - anchor, 0);
+  }
+
+  public static int unpack(byte[] src, int length, byte[] dst) {
+
+    // Unpack length bytes of src into dst and return the unpacked length.
+    // Corrupt blocks may raise array bounds errors...
+
+    int ip = 0;
+    int op = 0;
+    while (ip < length) {
+      int token = src[ip++] & 0xFF;
+      int literalLength = token >>> 4;
+      if (literalLength == 15) {
+        int b;
+        do {
+          b = src[ip++] & 0xFF;
+          literalLength += b;
+        } while (b == 255);
+      }
+      System.arraycopy(src, ip, dst, op, literalLength);
+      ip = ip + literalLength;
+      op = op + literalLength;
+      if (ip >= length) break;
+      int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+      ip = ip + 2;
+      int matchLength = token & 15;
+      if (matchLength == 15) {
+        int b;
+        do {
+          b = src[ip++] & 0xFF;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength = matchLength + MINMATCH;
+      int ref = op - offset;
+      if (offset == 0 || ref < 0) throw new ArrayIndexOutOfBoundsException(ref);
+      if (offset >= matchLength)
+        System.arraycopy(dst, ref, dst, op, matchLength);
+      else for (int i = 0; i < matchLength; i++)
+        dst[op + i] = dst[ref + i];
+      op = op + matchLength;
+    }
+    return op;
+  }
+
+  private static int writeToken(byte[] dst, int op, byte[] src, int literals, int literalLength, int matchLength) {
+    dst[op++] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchLength, 15));
+    if (literalLength >= 15) op = writeLength(dst, op, literalLength - 15);
+    System.arraycopy(src, literals, dst, op, literalLength);
+    return op + literalLength;
+  }
+
+  private static int writeLength(byte[] dst, int op, int length) {
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length = length - 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  private static int readInt(byte[] bytes, int index) {
+    return (bytes[index] & 0xFF) | ((bytes[index + 1] & 0xFF) << 8) | ((bytes[index + 2] & 0xFF) << 16) | (bytes[index + 3] << 24);
+  }
+
+}
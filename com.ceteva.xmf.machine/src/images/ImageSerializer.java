@@ -13,24 +13,49 @@ package images;
  *  are encoded in the image buffer (serialised) and how the VM is recreated  *
  *  when the saved buffer is read back in (inflated).                         *
  *                                                                            *
+ *  Images are saved as mapped images by default. The heap words are not    *
+ *  written to the image buffer. They follow the buffer at a page boundary    *
+ *  in the byte order of the saving machine so that inflating an image maps   *
+ *  the file and copies the heap in bulk. Images that start with their size   *
+ *  are inflated as before.                                                   *
+ *                                                                            *
+ *  When the machine compresses images (-compressImages) the image is saved   *
+ *  as a sequence of sections that are packed by the BlockCompressor and      *
+ *  checked by a CRC. The sections are written as they are serialised and    *
+ *  the sections of heap words are inflated in parallel.                      *
+ *                                                                            *
  ******************************************************************************/
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Locale;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 import threads.Thread;
 import values.ValueStack;
+import engine.Heap;
 import engine.Machine;
 import foreignfuns.ForeignFun;
 
@@ -55,6 +80,44 @@ public class ImageSerializer {
 
   private static final int HEADER_HEADER        = 4;
 
+  // A mapped image starts with MAPPED_IMAGE (the size at the start of other
+  // images is never negative), the byte order of the heap words and the
+  // size of the image buffer...
+
+  private static final int MAPPED_IMAGE         = 0x89464D58;
+
+  private static final int MAPPED_HEADER        = 12;
+
+  private static final int PAGE_SIZE            = 4096;
+
+  // The heap words of a mapped image are written in chunks of HEAP_CHUNK
+  // and those of a compressed image are in sections of HEAP_CHUNK words...
+
+  private static final int HEAP_CHUNK           = 64 * 1024;
+
+  // A compressed image starts with COMPRESSED_IMAGE followed by sections.
+  // Each section starts with its kind, its length, its packed length and
+  // the CRC32 of the unpacked section. A section that does not get smaller
+  // when it is packed is saved unpacked. The last section is END_SECTION...
+
+  private static final int COMPRESSED_IMAGE     = 0x8A464D58;
+
+  private static final int END_SECTION          = 0;
+
+  private static final int HEADER_SECTION       = 1;
+
+  private static final int HEAP_SECTION         = 2;
+
+  private static final int HEAP_WORDS_SECTION   = 3;
+
+  private static final int THREADS_SECTION      = 4;
+
+  private static final int STACK_SECTION        = 5;
+
+  private static final int TABLES_SECTION       = 6;
+
+  private static final int CONSTANTS_SECTION    = 7;
+
   private Machine          machine;
 
   // The image buffer and its index...
@@ -63,6 +126,13 @@ public class ImageSerializer {
 
   private int              index                = 0;
 
+  // True when the heap words are not in the image buffer and the heap
+  // words of a mapped image when it is inflated...
+
+  private boolean          heapApart            = false;
+
+  private IntBuffer        heapWords            = null;
+
   // Date format...
 
   private String           dateFormat           = "E MMM dd hh:mm:ss Z yyyy";
@@ -79,7 +149,7 @@ public class ImageSerializer {
     // long time = date.getTime();
     // String timeString = "" + time;
     // int size = stringSize(timeString);
-    int size = sdf.format(date).length();
+    int size = stringSize(sdf.format(date));
     Enumeration<String> keys = properties.keys();
     while (keys.hasMoreElements()) {
       String key = keys.nextElement();
@@ -92,7 +162,9 @@ public class ImageSerializer {
 
   private int heapSize() {
     int freePtr = machine.getFreePtr();
-    return ((freePtr - 1) * 4) + HEAP_HEADER;
+    if (heapApart)
+      return 4; // Only the free pointer.
+    else return ((freePtr - 1) * 4) + HEAP_HEADER;
   }
 
   private int imageSize() {
@@ -121,6 +193,13 @@ public class ImageSerializer {
     try {
       FileInputStream fin = new FileInputStream(machine.getFile(path));
       int size = readInt(fin);
+      if (size == MAPPED_IMAGE || size == COMPRESSED_IMAGE) {
+        if (size == MAPPED_IMAGE)
+          inflateMapped(fin.getChannel());
+        else inflateCompressed(fin.getChannel());
+        fin.close();
+        return true;
+      }
       System.err.println(size+"");
       image = new byte[size];
       fin.read(image);
@@ -136,6 +215,113 @@ public class ImageSerializer {
     }
   }
 
+  private void inflateMapped(FileChannel channel) throws IOException {
+
+    // The file is mapped and the image buffer is read from the mapped
+    // bytes. The heap is copied from a view of the rest of the file...
+
+    MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    ByteOrder order = file.getInt(4) == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    int size = file.getInt(8);
+    image = new byte[size];
+    ((Buffer) file).position(MAPPED_HEADER);
+    file.get(image);
+    ((Buffer) file).position(pageAlign(MAPPED_HEADER + size));
+    heapWords = file.slice().order(order).asIntBuffer();
+    inflate();
+    heapWords = null;
+  }
+
+  private void inflateCompressed(FileChannel channel) throws IOException {
+
+    // Inflate the sections in the order that they were saved. Sections of
+    // heap words are unpacked into the heap in parallel while the rest of
+    // the sections are inflated...
+
+    MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    ((Buffer) file).position(4);
+    ArrayList<Future<Boolean>> heapSections = new ArrayList<Future<Boolean>>();
+    heapApart = true;
+    int ptr = 0;
+    int kind = file.getInt();
+    while (kind != END_SECTION) {
+      int length = file.getInt();
+      byte[] packed = new byte[file.getInt()];
+      int crc = file.getInt();
+      file.get(packed);
+      if (kind == HEAP_WORDS_SECTION) {
+        heapSections.add(ForkJoinPool.commonPool().submit(inflateHeapWords(packed, length, crc, ptr)));
+        ptr = ptr + (length / 4);
+      } else {
+        image = unpackSection(packed, length, crc);
+        index = 0;
+        switch (kind) {
+        case HEADER_SECTION:
+          inflateHeader();
+          break;
+        case HEAP_SECTION:
+          inflateHeap();
+          break;
+        case THREADS_SECTION:
+          inflateThreads();
+          break;
+        case STACK_SECTION:
+          inflateStack();
+          break;
+        case TABLES_SECTION:
+          inflateTables();
+          break;
+        case CONSTANTS_SECTION:
+          inflateConstants();
+          break;
+        default:
+          throw new IOException("unknown image section " + kind);
+        }
+      }
+      kind = file.getInt();
+    }
+    try {
+      for (Future<Boolean> section : heapSections)
+        section.get();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      while (!(cause instanceof IOException) && cause.getCause() != null)
+        cause = cause.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+  }
+
+  private Callable<Boolean> inflateHeapWords(final byte[] packed, final int length, final int crc, final int ptr) {
+    final Heap heap = machine.getHeap();
+    return new Callable<Boolean>() {
+      public Boolean call() throws IOException {
+        byte[] bytes = unpackSection(packed, length, crc);
+        heap.write(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), ptr, length / 4);
+        return true;
+      }
+    };
+  }
+
+  private static byte[] unpackSection(byte[] packed, int length, int crc) throws IOException {
+    byte[] bytes = packed;
+    if (packed.length != length) {
+      bytes = new byte[length];
+      try {
+        if (BlockCompressor.unpack(packed, packed.length, bytes) != length) throw new IOException("corrupt image section");
+      } catch (IndexOutOfBoundsException e) {
+        throw new IOException("corrupt image section");
+      }
+    }
+    CRC32 check = new CRC32();
+    check.update(bytes, 0, length);
+    if ((int) check.getValue() != crc) throw new IOException("image section fails CRC check");
+    return bytes;
+  }
+
   private void inflateConstants() {
     machine.clientInterface = readInt();
     machine.foreignTypeMapping = readInt();
@@ -223,10 +409,13 @@ public class ImageSerializer {
 
   private void inflateHeap() {
     int freePtr = readInt();
-    int[] heap = machine.getHeap(freePtr);
+    Heap heap = machine.getHeap(freePtr);
     machine.setFreePtr(freePtr);
-    for (int i = 0; i < freePtr; i++)
-      heap[i] = readInt();
+    if (heapWords != null)
+      heap.write(heapWords, 0, freePtr);
+    else if (!heapApart)
+      for (int i = 0; i < freePtr; i++)
+        heap.set(i, readInt());
   }
 
   private void inflateStack() {
@@ -304,6 +493,10 @@ public class ImageSerializer {
     return Machine.mkWord(b4, b3, b2, b1);
   }
 
+  private static int pageAlign(int offset) {
+    return (offset + PAGE_SIZE - 1) & -PAGE_SIZE;
+  }
+
   private String readString() {
     int length = readInt();
     char[] buffer = new char[length];
@@ -326,9 +519,20 @@ public class ImageSerializer {
   public boolean serialize(String path) {
     try {
       FileOutputStream fout = new FileOutputStream(machine.getFile(path));
+      heapApart = true;
+      if (machine.compressImages) {
+        OutputStream out = new BufferedOutputStream(fout);
+        serializeCompressed(out);
+        out.close();
+        return true;
+      }
       serialize();
+      writeInt(fout, MAPPED_IMAGE);
+      writeInt(fout, ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1);
       writeInt(fout, index);
-      fout.write(image);
+      fout.write(image, 0, index);
+      fout.write(new byte[pageAlign(MAPPED_HEADER + index) - (MAPPED_HEADER + index)]);
+      serializeHeapWords(fout.getChannel());
       fout.close();
       return true;
     } catch (FileNotFoundException e) {
@@ -343,6 +547,68 @@ public class ImageSerializer {
     }
   }
 
+  private void serializeCompressed(OutputStream out) throws IOException {
+    writeInt(out, COMPRESSED_IMAGE);
+    image = new byte[headerSize()];
+    serializeHeader();
+    writeSection(out, HEADER_SECTION);
+    image = new byte[heapSize()];
+    serializeHeap();
+    writeSection(out, HEAP_SECTION);
+    serializeHeapSections(out);
+    image = new byte[threadsSize()];
+    serializeThreads();
+    writeSection(out, THREADS_SECTION);
+    image = new byte[stackSize()];
+    serializeStack();
+    writeSection(out, STACK_SECTION);
+    image = new byte[tablesSize()];
+    serializeTables();
+    writeSection(out, TABLES_SECTION);
+    image = new byte[MACHINE_CONSTANTS * 4];
+    serializeConstants();
+    writeSection(out, CONSTANTS_SECTION);
+    writeInt(out, END_SECTION);
+  }
+
+  private void serializeHeapSections(OutputStream out) throws IOException {
+
+    // The heap words are saved in sections of HEAP_CHUNK words...
+
+    int freePtr = machine.getFreePtr();
+    Heap heap = machine.getHeap(freePtr);
+    image = new byte[HEAP_CHUNK * 4];
+    IntBuffer words = ByteBuffer.wrap(image).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    for (int ptr = 0; ptr < freePtr; ptr += HEAP_CHUNK) {
+      int length = Math.min(HEAP_CHUNK, freePtr - ptr);
+      ((Buffer) words).clear();
+      heap.read(ptr, words, length);
+      index = length * 4;
+      writeSection(out, HEAP_WORDS_SECTION);
+    }
+  }
+
+  private void writeSection(OutputStream out, int kind) throws IOException {
+
+    // Write the image buffer up to the index as a section. The index is
+    // reset for the next section...
+
+    CRC32 crc = new CRC32();
+    crc.update(image, 0, index);
+    byte[] packed = new byte[BlockCompressor.maxPackedLength(index)];
+    int length = BlockCompressor.pack(image, index, packed);
+    if (length >= index) {
+      packed = image;
+      length = index;
+    }
+    writeInt(out, kind);
+    writeInt(out, index);
+    writeInt(out, length);
+    writeInt(out, (int) crc.getValue());
+    out.write(packed, 0, length);
+    index = 0;
+  }
+
   private void serializeConstants() {
     writeInt(machine.clientInterface);
     writeInt(machine.foreignTypeMapping);
@@ -430,10 +696,28 @@ public class ImageSerializer {
 
   private void serializeHeap() {
     int freePtr = machine.getFreePtr();
-    int[] heap = machine.getHeap(freePtr);
+    Heap heap = machine.getHeap(freePtr);
     writeInt(freePtr);
-    for (int i = 0; i < freePtr; i++)
-      writeInt(heap[i]);
+    if (!heapApart)
+      for (int i = 0; i < freePtr; i++)
+        writeInt(heap.get(i));
+  }
+
+  private void serializeHeapWords(FileChannel channel) throws IOException {
+
+    // Write the heap words of a mapped image in native byte order...
+
+    int freePtr = machine.getFreePtr();
+    Heap heap = machine.getHeap(freePtr);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(HEAP_CHUNK * 4).order(ByteOrder.nativeOrder());
+    for (int ptr = 0; ptr < freePtr; ptr += HEAP_CHUNK) {
+      int length = Math.min(HEAP_CHUNK, freePtr - ptr);
+      ((Buffer) buffer).clear();
+      heap.read(ptr, buffer.asIntBuffer(), length);
+      ((Buffer) buffer).limit(length * 4);
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    }
   }
 
   private void serializeStack() {
@@ -45,6 +45,20 @@ public class Thread implements java.io.Serializable, StackFrame {
 
   public static final int       BREAKPOINT       = 5;
 
+  // Threads are scheduled by priority (see xos.ThreadQueue). A thread that
+  // is preempted because it has performed its quantum of instructions runs
+  // one level lower each time until it yields or blocks, so a thread that
+  // never yields cannot keep the machine from the other threads. Threads
+  // that wait too long on a low level are aged (see xos.ThreadQueue). The
+  // priority is not saved in images and threads loaded from an image have
+  // NORM_PRIORITY.
+
+  public static final int       MIN_PRIORITY     = 0;
+
+  public static final int       NORM_PRIORITY    = 4;
+
+  public static final int       MAX_PRIORITY     = 7;
+
   private String                name;                                          // The name of the thread.
 
   private int                   id;                                            // A unique identifier for the thread.
@@ -71,6 +85,16 @@ public class Thread implements java.io.Serializable, StackFrame {
 
   private ClassLoader           classLoader      = null;                       // Class loader to use during this thread.
 
+  private int                   priority         = NORM_PRIORITY;              // The scheduling priority.
+
+  private int                   penalty          = 0;                          // Levels lost to preemption.
+
+  private long                  instructions     = 0;                          // Instructions performed by the thread.
+
+  private int                   slices           = 0;                          // Times the thread has been performed.
+
+  private long                  scheduled        = 0;                          // Scheduling round when last queued.
+
   public Thread(int id, String name, ValueStack stack, int currentFrame, int openFrame, int state) {
     this.id = id;
     this.name = name;
@@ -222,6 +246,10 @@ public class Thread implements java.io.Serializable, StackFrame {
     return inputChannel;
   }
 
+  public long instructions() {
+    return instructions;
+  }
+
   public boolean isNamed() {
     return name != null && !name.equals("");
   }
@@ -237,6 +265,13 @@ public class Thread implements java.io.Serializable, StackFrame {
       m.threadDies(this, result);
   }
 
+  public int level() {
+
+    // The level of the run queue that the thread is scheduled on...
+
+    return priority - penalty;
+  }
+
   public int length() {
     int length = 1;
     Thread thread = this.next();
@@ -298,12 +333,30 @@ public class Thread implements java.io.Serializable, StackFrame {
     monitors = thread.monitors;
     initiator = thread.initiator;
     classLoader = thread.classLoader;
+    priority = thread.priority;
+  }
+
+  public void performed(int instructions, boolean preempted) {
+
+    // Called when the thread stops running on the machine. A thread that
+    // was preempted loses a level and a thread that stopped of its own
+    // accord is restored to its priority...
+
+    this.instructions += instructions;
+    slices++;
+    if (preempted)
+      penalty = Math.min(penalty + 1, priority);
+    else penalty = 0;
   }
 
   public int prevFrame(int frame) {
     return stack.ref(frame + PREVFRAME);
   }
 
+  public int priority() {
+    return priority;
+  }
+
   public Thread remove() {
 
     // Remove ourself from the cycle of threads.
@@ -346,6 +399,11 @@ public class Thread implements java.io.Serializable, StackFrame {
     this.openFrame = openFrame;
   }
 
+  public void setPriority(int priority) {
+    this.priority = Math.max(MIN_PRIORITY, Math.min(MAX_PRIORITY, priority));
+    this.penalty = 0;
+  }
+
   public void setStack(ValueStack stack) {
     this.stack = stack;
   }
@@ -364,6 +422,18 @@ public class Thread implements java.io.Serializable, StackFrame {
     state = SLEEPING;
   }
 
+  public long scheduled() {
+    return scheduled;
+  }
+
+  public void setScheduled(long scheduled) {
+    this.scheduled = scheduled;
+  }
+
+  public int slices() {
+    return slices;
+  }
+
   public ValueStack stack() {
     return stack;
   }
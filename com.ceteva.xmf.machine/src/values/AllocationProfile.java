@@ -0,0 +1,162 @@
+package values;
+
+/******************************************************************************
+ *                                                                            *
+ *                            Allocation Profiles                             *
+ *             ------------------------------------------------               *
+ *                                                                            *
+ *  When allocation is profiled (-profileAlloc N) the memory records pass     *
+ *  one in every N allocations to an allocation profile. The sample is        *
+ *  attributed to the site that performed it: the name of the code box in     *
+ *  the current frame, the resource it was compiled from and the current      *
+ *  line. A census collection (see Machine.takeCensus) records the objects    *
+ *  that survive and the profile counts them by classifier. The profile is    *
+ *  returned to XMF as ranked histograms or written to a dump file.           *
+ *                                                                            *
+ ******************************************************************************/
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.Map;
+
+import engine.Machine;
+
+public class AllocationProfile implements Value {
+
+    private Machine                   machine;
+
+    private int                       rate;                  // One in every rate allocations is sampled.
+
+    private int                       countdown;             // Allocations until the next sample.
+
+    private Hashtable<String, long[]> sites       = new Hashtable<String, long[]>(); // Samples and words by site.
+
+    private Hashtable<String, long[]> classifiers = new Hashtable<String, long[]>(); // Objects and words by classifier.
+
+    public AllocationProfile(Machine machine, int rate) {
+        this.machine = machine;
+        this.rate = Math.max(rate, 1);
+        this.countdown = this.rate;
+    }
+
+    public void alloc(int type, int size) {
+
+        // Called by the memory records for each allocation. The site is
+        // found from the current frame which is not valid while the machine
+        // is collecting...
+
+        if (--countdown > 0)
+            return;
+        countdown = rate;
+        if (machine.isCollecting() || machine.currentFrame() < 0)
+            return;
+        count(sites, site(), size);
+    }
+
+    public void census(int[] objs, int length) {
+
+        // The objects that survived a census collection. Count them by
+        // classifier replacing the previous census...
+
+        Hashtable<Integer, long[]> types = new Hashtable<Integer, long[]>();
+        for (int i = 0; i < length; i++) {
+            Integer type = machine.objType(objs[i]);
+            long[] counts = types.get(type);
+            if (counts == null)
+                types.put(type, counts = new long[2]);
+            counts[0]++;
+            counts[1] += OBJ_SIZE;
+        }
+        classifiers.clear();
+        for (Map.Entry<Integer, long[]> entry : types.entrySet()) {
+            String name = machine.valueToString(entry.getKey());
+            long[] counts = classifiers.get(name);
+            if (counts == null)
+                classifiers.put(name, entry.getValue());
+            else {
+                counts[0] += entry.getValue()[0];
+                counts[1] += entry.getValue()[1];
+            }
+        }
+    }
+
+    public int data() {
+
+        // Returns the allocation sites as a sequence of [site,samples,words]
+        // with the sites that sampled the most words first...
+
+        return histogram(sites);
+    }
+
+    public int liveData() {
+
+        // Returns the last census as a sequence of [classifier,objects,words]
+        // with the classifiers that have the most live words first...
+
+        return histogram(classifiers);
+    }
+
+    public void print(PrintStream out, int limit) {
+        out.println("Allocation sites (1 in " + rate + " allocations sampled):");
+        print(out, sites, limit);
+        if (!classifiers.isEmpty()) {
+            out.println("Live objects by classifier:");
+            print(out, classifiers, limit);
+        }
+    }
+
+    public void reset() {
+        sites.clear();
+        classifiers.clear();
+    }
+
+    private String site() {
+        int codeBox = machine.frameCodeBox();
+        String name = machine.valueToString(machine.codeBoxName(codeBox));
+        String resource = machine.valueToString(machine.codeBoxResourceName(codeBox));
+        return name + " (" + resource + ":" + Machine.value(machine.frameLineCount()) + ")";
+    }
+
+    private static void count(Hashtable<String, long[]> table, String key, int size) {
+        long[] counts = table.get(key);
+        if (counts == null)
+            table.put(key, counts = new long[2]);
+        counts[0]++;
+        counts[1] += size;
+    }
+
+    private int histogram(Hashtable<String, long[]> table) {
+        int data = Machine.nilValue;
+        ArrayList<Map.Entry<String, long[]>> entries = ranked(table);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Map.Entry<String, long[]> entry = entries.get(i);
+            int record = machine.mkArray(3);
+            machine.arraySet(record, 0, machine.mkString(entry.getKey()));
+            machine.arraySet(record, 1, Machine.mkInt((int) Math.min(entry.getValue()[0], Machine.MAXINT)));
+            machine.arraySet(record, 2, Machine.mkInt((int) Math.min(entry.getValue()[1], Machine.MAXINT)));
+            data = machine.mkCons(record, data);
+        }
+        return data;
+    }
+
+    private static void print(PrintStream out, Hashtable<String, long[]> table, int limit) {
+        ArrayList<Map.Entry<String, long[]>> entries = ranked(table);
+        for (int i = 0; i < Math.min(limit, entries.size()); i++) {
+            Map.Entry<String, long[]> entry = entries.get(i);
+            out.println("  " + entry.getValue()[1] + " words " + entry.getValue()[0] + " " + entry.getKey());
+        }
+    }
+
+    private static ArrayList<Map.Entry<String, long[]>> ranked(Hashtable<String, long[]> table) {
+        ArrayList<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(table.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> e1, Map.Entry<String, long[]> e2) {
+                return Long.compare(e2.getValue()[1], e1.getValue()[1]);
+            }
+        });
+        return entries;
+    }
+}
@@ -8,7 +8,8 @@ package values;
  *  Data structure allocation on the machine updates an instance of the class *
  *  Memory in order to keep records on the amount of different data types     *
  *  that are being used. GC causes a new record to be added to a linked list  *
- *  of memory records up to LIMIT.                                            *
+ *  of memory records up to LIMIT. When allocation is profiled each record    *
+ *  passes the allocations to the allocation profile.                         *
  *                                                                            *
  ******************************************************************************/
 
@@ -27,6 +28,8 @@ public class Memory implements Value {
 
     private Memory    prev;                      // Previous usage record or null.
 
+    private AllocationProfile profile;           // The allocation profile or null.
+
     public Memory(long time, Memory prev) {
         this.time = time;
         this.prev = prev;
@@ -36,6 +39,8 @@ public class Memory implements Value {
         // Records the allocation of 'size' words of memory for the supplied
         // type.
         usage[type] += size;
+        if (profile != null)
+            profile.alloc(type, size);
     }
 
     public int data(Machine machine) {
@@ -77,7 +82,9 @@ public class Memory implements Value {
         
         if (length() == LIMIT)
             dropLastRecord();
-        return new Memory(System.currentTimeMillis(), this);
+        Memory record = new Memory(System.currentTimeMillis(), this);
+        record.setProfile(profile);
+        return record;
     }
     
     public Memory prev() {
@@ -91,6 +98,10 @@ public class Memory implements Value {
             return prev.data(machine);
     }
     
+    public void setProfile(AllocationProfile profile) {
+        this.profile = profile;
+    }
+
     public void setTotalUsed(int m) {
         totalUsed = m;
     }
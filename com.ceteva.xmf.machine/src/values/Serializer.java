@@ -52,7 +52,7 @@ public final class Serializer implements Value, Errors {
 
   public static final int VERSION_MAJOR   = 1;
 
-  public static final int VERSION_MINOR   = 9;
+  public static final int VERSION_MINOR   = 11;
 
   // A save and load machine defines a common language and
   // caching structure for saving and rebuilding the values
@@ -174,6 +174,12 @@ public final class Serializer implements Value, Errors {
 
   public static final int SETFORWARDREF   = 66;
 
+  public static final int MKFLOATBITS     = 67;
+
+  public static final int MKBIGINT        = 68;
+
+  public static final int MKOPENTABLE     = 69;
+
   public static final int END             = 255;
 
   // Set on loading...
@@ -459,6 +465,15 @@ public final class Serializer implements Value, Errors {
         case MKFLOAT:
           loadFloat(in);
           break;
+        case MKFLOATBITS:
+          loadFloatBits(in);
+          break;
+        case MKBIGINT:
+          loadBigInt(in);
+          break;
+        case MKOPENTABLE:
+          loadOpenTable(in);
+          break;
         case MKFORWARDREF:
           loadForwardRef();
           break;
@@ -692,12 +707,34 @@ public final class Serializer implements Value, Errors {
   }
 
   public void loadFloat(InputStream in) {
+
+    // Files saved before XAR 1.10 encode floats as strings...
+
     int stringRep = valueStack.pop();
     int f = machine.mkFloat(machine.valueToString(stringRep));
     valueStack.push(f);
     debug("FLOAT");
   }
 
+  public void loadFloatBits(InputStream in) {
+    int f = machine.mkFloat(Float.intBitsToFloat(read32(in)));
+    valueStack.push(f);
+    debug("FLOATBITS");
+  }
+
+  public void loadBigInt(InputStream in) {
+
+    // A big integer is saved as its sign followed by the number of
+    // limbs and then the limbs, least significant first...
+
+    int sign = read8(in) - 1;
+    int[] magnitude = new int[read16(in)];
+    for (int i = 0; i < magnitude.length; i++)
+      magnitude[i] = read32(in);
+    valueStack.push(machine.mkBigInt(sign, magnitude));
+    debug("BIGINT");
+  }
+
   public void loadForwardRef() {
     int ref = machine.mkForwardRef(Machine.nilValue);
     valueStack.push(ref);
@@ -848,6 +885,13 @@ public final class Serializer implements Value, Errors {
     debug("TABLE");
   }
 
+  public void loadOpenTable(InputStream in) {
+    int table = machine.mkOpenHashtable(read24(in));
+    valueStack.push(table);
+    values[index++] = table;
+    debug("OPENTABLE");
+  }
+
   public void loadTrue() {
     valueStack.push(Machine.trueValue);
     debug("TRUE");
@@ -936,6 +980,11 @@ public final class Serializer implements Value, Errors {
     return machine.mkSymbol(readString(in));
   }
 
+  public int read32(InputStream in) {
+    // Read a 32 bit value from the input stream.
+    return (read16(in) << 16) | read16(in);
+  }
+
   public int read24(InputStream in) {
     // Read a 24 bit value from the input stream.
     try {
@@ -1072,6 +1121,9 @@ public final class Serializer implements Value, Errors {
       case BOOL:
         saveBool(out, value);
         break;
+      case BIGINT:
+        saveBigInt(out, value);
+        break;
       case BUFFER:
         saveBuffer(out, value);
         break;
@@ -1245,7 +1297,7 @@ public final class Serializer implements Value, Errors {
     write24(out, length);
     for (int i = 0; i < machine.codeLength(code); i++) {
       int instr = machine.codeRef(code, i);
-      write8(out, Machine.tag(instr));
+      write8(out, Machine.byte4(instr));
       write24(out, Machine.value(instr));
     }
   }
@@ -1353,9 +1405,18 @@ public final class Serializer implements Value, Errors {
     }
   }
 
+  public void saveBigInt(OutputStream out, int word) {
+    int[] magnitude = machine.integerMagnitude(word);
+    writeInstr(out, MKBIGINT);
+    write8(out, machine.integerSign(word) + 1);
+    write16(out, magnitude.length);
+    for (int i = 0; i < magnitude.length; i++)
+      write32(out, magnitude[i]);
+  }
+
   public void saveFloat(OutputStream out, int word) {
-    saveDispatch(out, machine.floatString(word));
-    writeInstr(out, MKFLOAT);
+    writeInstr(out, MKFLOATBITS);
+    write32(out, Float.floatToRawIntBits(machine.asFloat(word)));
   }
 
   public void saveForwardRef(OutputStream out, int ref) {
@@ -1715,7 +1776,9 @@ public final class Serializer implements Value, Errors {
   }
 
   public void saveTable(OutputStream out, int table) {
-    if (!saveAsRef(out, table)) {
+    if (machine.isOpenTable(table))
+      saveOpenTable(out, table);
+    else if (!saveAsRef(out, table)) {
       int length = machine.arrayLength(table);
       saveIndex(table, length);
       writeInstr(out, MKTABLE);
@@ -1735,6 +1798,28 @@ public final class Serializer implements Value, Errors {
     }
   }
 
+  public void saveOpenTable(OutputStream out, int table) {
+
+    // The entries are read directly from the storage since the first
+    // word of the table is replaced by the save index...
+
+    if (!saveAsRef(out, table)) {
+      int storage = machine.openTableStorage(table);
+      int capacity = machine.openTableCapacity(table);
+      int count = machine.openTableCount(table);
+      saveIndex(table, machine.ref(Machine.ptr(table)));
+      writeInstr(out, MKOPENTABLE);
+      write24(out, count);
+      for (int i = 0; i < capacity; i++) {
+        if (machine.openTableIsUsed(storage, i)) {
+          saveDispatch(out, machine.openTableValue(storage, i));
+          saveDispatch(out, machine.openTableKey(storage, i));
+          writeInstr(out, PUT);
+        }
+      }
+    }
+  }
+
   public void saveTrueSlot(OutputStream out, int name) {
     writeInstr(out, MKTRUESLOT);
     writeString(out, machine.symbolName(name));
@@ -1894,6 +1979,11 @@ public final class Serializer implements Value, Errors {
     }
   }
 
+  public void write32(OutputStream out, int value) {
+    write16(out, (value >>> 16) & 0xFFFF);
+    write16(out, value & 0xFFFF);
+  }
+
   public void write24(OutputStream out, int value) {
     if (value > 0xFFFFFF) throw new Error("ValueSaver.write24 " + value + " > 0xFFFFFF");
 
@@ -88,7 +88,7 @@ public interface Value {
 
     public static final int FLOAT           = 23;             // Floating point numbers.
 
-    public static final int FLOAT_SIZE      = 1;
+    public static final int FLOAT_SIZE      = 2;              // FLOATBITS header + raw IEEE bits.
 
     public static final int CLIENT          = 24;             // Clients.
 
@@ -113,10 +113,20 @@ public interface Value {
     public static final int FORWARDREF_SIZE = 3;              // The path, value and listeners.
     
     public static final int BIGINT			= 34;             // Arbitrary precision integers.
+
+    public static final int BIGINT_HEADER   = 2;              // BIGINTLENGTH header + sign, followed by the limbs.
+
+    public static final int FLOATBITS       = 35;             // Used by the garbage collector.
+
+    public static final int BIGINTLENGTH    = 36;             // Used by the garbage collector.
+
+    public static final int OPENTABLE       = 37;             // Marks open addressing tables and their free key slots.
+
+    public static final int OPENTABLE_SIZE  = 6;              // Marker, daemons active, daemons, count, deleted, storage.
     
-    public static final int LASTVALUE       = 35;             // The first unused type tag.
+    public static final int LASTVALUE       = 38;             // The first unused type tag.
 
-    public static final int ILLEGAL         = 255;            // Corresponds to -1.
+    public static final int ILLEGAL         = 63;             // Corresponds to -1.
 
     // Dynamic variables are one of the following:
 
@@ -169,19 +169,15 @@ public class JavaTranslator {
   }
 
   private static Object mapXMFTableToHashtable(Machine machine, int table) {
-    int length = machine.arrayLength(table);
+    int keys = machine.hashTableKeys(table);
     Hashtable<Object, Object> javaTable = new Hashtable<Object, Object>();
-    for (int i = 0; i < length; i++) {
-      int bucket = machine.arrayRef(table, i);
-      while (bucket != Machine.nilValue) {
-        int cell = machine.consHead(bucket);
-        int key = machine.consHead(cell);
-        int value = machine.consTail(cell);
-        bucket = machine.consTail(bucket);
-        Object javaKey = mapXMFValue(machine, java.lang.Object.class, key);
-        Object javaValue = mapXMFValue(machine, java.lang.Object.class, value);
-        javaTable.put(javaKey, javaValue);
-      }
+    while (keys != Machine.nilValue) {
+      int key = machine.consHead(keys);
+      int value = machine.hashTableGet(table, key);
+      keys = machine.consTail(keys);
+      Object javaKey = mapXMFValue(machine, java.lang.Object.class, key);
+      Object javaValue = mapXMFValue(machine, java.lang.Object.class, value);
+      javaTable.put(javaKey, javaValue);
     }
     return javaTable;
   }
@@ -204,7 +200,7 @@ public class JavaTranslator {
     }
     if (Machine.isFloat(value)) {
       if (type == Float.TYPE || type == Float.class || type == java.lang.Object.class)
-        return new Float(machine.valueToString(value));
+        return Float.valueOf(machine.asFloat(value));
       else if (type == Double.TYPE || type == Double.class)
         return new Double(machine.valueToString(value));
       else throw new XMFToJavaTypeError("Float clash", value, type);
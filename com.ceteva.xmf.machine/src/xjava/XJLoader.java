@@ -23,7 +23,7 @@ public class XJLoader extends ClassLoader {
   // Loaded classes are cached for subsequent requests by name.
   private Hashtable<String, Class<?>> cache = new Hashtable<String, Class<?>>();
 
-  XJLoader() {
+  public XJLoader() {
     super(XJLoader.class.getClassLoader());
   }
 
@@ -120,6 +120,16 @@ public class XJLoader extends ClassLoader {
     return classname;
   }
 
+  public Class<?> defineGeneratedClass(String name, byte[] classBytes) {
+
+    // Define a class from bytes that have been generated at run time
+    // (see engine.CodeCompiler)...
+
+    Class<?> c = defineClass(name, classBytes, 0, classBytes.length);
+    cache.put(name, c);
+    return c;
+  }
+
   public void setPaths(String[] paths) {
     for (int i = 0; i < paths.length; i++)
       XJLoader.paths.addElement(paths[i]);
@@ -0,0 +1,95 @@
+package xos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+public class ChannelInputStream extends InputStream {
+
+  // An input stream that reads from a socket channel in non-blocking mode
+  // so that the channel can be monitored by the XOS channel monitor. The
+  // bytes that are available are read into a buffer without blocking.
+  // A read that must block waits on a selector of its own.
+
+  private SocketChannel channel;
+
+  private ByteBuffer    buffer = ByteBuffer.allocate(8 * 1024);
+
+  private boolean       eof    = false;
+
+  private Selector      selector;
+
+  public ChannelInputStream(SocketChannel channel) throws IOException {
+    this.channel = channel;
+    channel.configureBlocking(false);
+    ((Buffer) buffer).flip();
+  }
+
+  public synchronized int available() throws IOException {
+
+    // The end of the stream counts as available since a read will
+    // return -1 without blocking...
+
+    if (!buffer.hasRemaining() && !eof) fill();
+    return eof && !buffer.hasRemaining() ? 1 : buffer.remaining();
+  }
+
+  public SocketChannel channel() {
+    return channel;
+  }
+
+  public synchronized void close() throws IOException {
+    if (selector != null) selector.close();
+    channel.close();
+  }
+
+  private void fill() throws IOException {
+    buffer.compact();
+    try {
+      if (channel.read(buffer) == -1) eof = true;
+    } finally {
+      ((Buffer) buffer).flip();
+    }
+  }
+
+  public synchronized int read() throws IOException {
+    if (!waitForInput()) return -1;
+    return buffer.get() & 0xFF;
+  }
+
+  public synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+    if (!waitForInput()) return -1;
+    length = Math.min(length, buffer.remaining());
+    buffer.get(bytes, offset, length);
+    return length;
+  }
+
+  private boolean waitForInput() throws IOException {
+
+    // Returns true when there is input in the buffer and false at the
+    // end of the stream. Blocks until one or the other...
+
+    while (!buffer.hasRemaining() && !eof) {
+      fill();
+      if (!buffer.hasRemaining() && !eof) {
+        if (selector == null) {
+          selector = Selector.open();
+          channel.register(selector, SelectionKey.OP_READ);
+        }
+        selector.select();
+        selector.selectedKeys().clear();
+      }
+    }
+    return buffer.hasRemaining();
+  }
+
+  public String toString() {
+    return "ChannelInputStream(" + channel + ")";
+  }
+
+}
\ No newline at end of file
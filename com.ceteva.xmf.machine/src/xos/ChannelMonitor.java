@@ -0,0 +1,112 @@
+package xos;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import threads.Thread;
+
+public class ChannelMonitor extends java.lang.Thread {
+
+  // Monitors all the selectable channels (the sockets of external clients)
+  // that are causing threads to block. A single Java thread waits on a
+  // selector for any of the channels to become readable and schedules the
+  // thread that is blocking on it. Input streams that cannot be selected
+  // are monitored by a StreamMonitor each.
+
+  private Selector                       selector;
+
+  private OperatingSystem                XOS;
+
+  // Threads are queued by XOS and registered by the monitor since a
+  // channel cannot be registered while the selector is waiting. Each
+  // entry is a channel followed by the thread blocking on it...
+
+  private ConcurrentLinkedQueue<Object>  requests = new ConcurrentLinkedQueue<Object>();
+
+  public ChannelMonitor(OperatingSystem XOS) throws IOException {
+    this.XOS = XOS;
+    selector = Selector.open();
+    setName("XOS channel monitor");
+  }
+
+  public void monitor(SelectableChannel channel, Thread thread) {
+
+    // The thread is blocking on the channel. Schedule the thread when
+    // input becomes available on the channel...
+
+    XOS.debug("Channel monitor monitoring " + channel + " for " + thread);
+    requests.add(channel);
+    requests.add(thread);
+    selector.wakeup();
+  }
+
+  private void register() {
+    Object channel = requests.poll();
+    while (channel != null) {
+      Thread thread = (Thread) requests.poll();
+      try {
+        SelectionKey key = ((SelectableChannel) channel).keyFor(selector);
+        if (key == null)
+          key = ((SelectableChannel) channel).register(selector, SelectionKey.OP_READ);
+        else key.interestOps(SelectionKey.OP_READ);
+        key.attach(thread);
+      } catch (ClosedChannelException e) {
+        schedule(thread);
+      } catch (CancelledKeyException e) {
+        schedule(thread);
+      }
+      channel = requests.poll();
+    }
+  }
+
+  public void run() {
+
+    // A key is only interested in input while a thread is blocking on the
+    // channel. Once the thread is scheduled the key waits for the next
+    // thread...
+
+    while (selector.isOpen()) {
+      try {
+        register();
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Thread thread = (Thread) key.attachment();
+          key.attach(null);
+          if (key.isValid()) key.interestOps(0);
+          schedule(thread);
+        }
+      } catch (CancelledKeyException e) {
+      } catch (IOException e) {
+        System.err.println(e);
+      }
+    }
+  }
+
+  private void schedule(Thread thread) {
+    if (thread != null && thread.state() != Thread.DEAD) {
+      if (thread.state() != Thread.BLOCK_READ) {
+        System.out.println("ERROR in monitor " + this + " state has changed to: " + thread.state());
+        System.exit(0);
+      }
+      synchronized (XOS) {
+        XOS.schedule(thread);
+        XOS.debug("Channel monitor scheduled " + thread);
+        XOS.notifyAll();
+      }
+    }
+  }
+
+  public String toString() {
+    return "ChannelMonitor(" + selector.keys().size() + " channels)";
+  }
+
+}
\ No newline at end of file
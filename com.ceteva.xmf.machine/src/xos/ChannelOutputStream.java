@@ -0,0 +1,51 @@
+package xos;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+public class ChannelOutputStream extends OutputStream {
+
+  // An output stream that writes to a socket channel in non-blocking mode
+  // (see ChannelInputStream). A write that cannot be completed waits on a
+  // selector of its own until the channel can take more bytes.
+
+  private SocketChannel channel;
+
+  private Selector      selector;
+
+  public ChannelOutputStream(SocketChannel channel) {
+    this.channel = channel;
+  }
+
+  public synchronized void close() throws IOException {
+    if (selector != null) selector.close();
+    channel.close();
+  }
+
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+    while (buffer.hasRemaining()) {
+      if (channel.write(buffer) == 0) {
+        if (selector == null) {
+          selector = Selector.open();
+          channel.register(selector, SelectionKey.OP_WRITE);
+        }
+        selector.select();
+        selector.selectedKeys().clear();
+      }
+    }
+  }
+
+  public String toString() {
+    return "ChannelOutputStream(" + channel + ")";
+  }
+
+}
\ No newline at end of file
@@ -1,8 +1,10 @@
 package xos;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Vector;
 
 public class ConnectionMonitor extends Thread {
@@ -28,7 +30,7 @@ public class ConnectionMonitor extends Thread {
 
         while (server.isBound() && !server.isClosed())
             try {
-                Socket socket = server.accept();
+                Socket socket = server.getChannel().accept().socket();
                 sockets.addElement(socket);
                 XOS.debug("ConnectionMonitor got " + socket);
                 XOS.newExternalClient(socket);
@@ -50,7 +52,8 @@ public class ConnectionMonitor extends Thread {
         // that is used by the external clients when they connect.
 
         try {
-            server = new ServerSocket(port);
+            server = ServerSocketChannel.open().socket();
+            server.bind(new InetSocketAddress(port));
         } catch (IOException ioe) {
             System.out.println(ioe);
             System.exit(0);
@@ -31,16 +31,6 @@ public class DChannel extends XChannel implements XData {
         super(in);
     }
 
-    public synchronized int peek() {
-
-        // Override XChannel.peek to use super.read().
-
-        if (bufferEmpty())
-            return buffer(super.read());
-        else
-            return buffer();
-    }
-
     public synchronized int read() {
 
         // When a data value is requested we must read until the complete
@@ -74,6 +64,17 @@ public class DChannel extends XChannel implements XData {
         return type;
     }
 
+    public synchronized int read(byte[] bytes, int offset, int length) {
+
+        // Data values are read one at a time. The type of the value is
+        // placed in the bytes...
+
+        if (length == 0)
+            return 0;
+        bytes[offset] = (byte) read();
+        return 1;
+    }
+
     private void readBool() {
 
         // A boolean value is encoded in the next byte. 1 is
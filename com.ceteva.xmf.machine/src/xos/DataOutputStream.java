@@ -37,6 +37,10 @@ public class DataOutputStream extends OutputStream implements XData {
         out.write(b);
     }
 
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
     public void writeBool(boolean b) throws IOException {
         out.write(BOOL);
         if (b)
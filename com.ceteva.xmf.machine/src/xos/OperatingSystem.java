@@ -20,6 +20,8 @@ import java.net.InetAddress;
 import java.net.PasswordAuthentication;
 import java.net.Socket;
 import java.net.URL;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Stack;
@@ -38,9 +40,10 @@ public final class OperatingSystem implements EventHandler {
   // XOS is the XMF operating system. It is responsible for managing XMF
   // clients, input and output channels and for scheduling XMF threads.
   // The operating system is (Java) multi-threaded. A thread monitors
-  // requests for connections via sockets. Multiple threads monitor input
-  // streams and ensure that the XVM is woken up when all threads are
-  // blocking on input.
+  // requests for connections via sockets. A thread monitors the sockets
+  // of connected clients and further threads monitor input streams that
+  // are not sockets. They ensure that the XVM is woken up when all threads
+  // are blocking on input.
 
   // Clients are maintained in the following table.
   // The keys are the ids of the clients. Each client must have
@@ -89,6 +92,12 @@ public final class OperatingSystem implements EventHandler {
 
   private Vector<StreamMonitor>  inputMonitors         = new Vector<StreamMonitor>();
 
+  // Input streams that read from selectable channels (the sockets of
+  // external clients) do not need a monitor each. They are monitored
+  // by a single channel monitor that is started when it is first needed.
+
+  private ChannelMonitor         channelMonitor;
+
   // XOS is supplied with the names of internal clients via the -internal
   // command line argument. The value of the argument should be the
   // qualified name of the class relative to CLASSPATH.
@@ -121,6 +130,12 @@ public final class OperatingSystem implements EventHandler {
 
   private Vector<OutputStream>   outputChannels        = new Vector<OutputStream>();
 
+  // An output channel may have a write buffer (see bufferOutputChannel).
+  // The table is indexed in the same way as the output channels and holds
+  // null for the channels that are written directly.
+
+  private Vector<WriteBuffer>    writeBuffers          = new Vector<WriteBuffer>();
+
   // XOS listens on a supplied port for external client connections.
   // The port number is supplied as a command line argument.
 
@@ -138,6 +153,12 @@ public final class OperatingSystem implements EventHandler {
 
   private ThreadQueue            scheduledThreads      = new ThreadQueue();
 
+  // Threads that are delayed (Kernel_delay) sleep with a timer on the
+  // timer wheel. XOS waits for a monitor or for the next timer and the
+  // threads whose timers expire are woken and scheduled.
+
+  private TimerWheel             timers                = new TimerWheel(millis());
+
   // A pool of free values used in messages.
 
   private Stack<Value>           valuePool             = new Stack<Value>();
@@ -314,6 +335,25 @@ public final class OperatingSystem implements EventHandler {
     return available;
   }
 
+  public synchronized void bufferOutputChannel(int index, int size, boolean autoFlush) {
+
+    // Give the output channel a write buffer of the given size. The buffer
+    // is flushed at the end of each line when autoFlush is set and otherwise
+    // only when it is full or the channel is flushed. A size of 0 removes
+    // the buffer and writes the channel directly...
+
+    OutputStream out = outputChannel(index);
+    if (out != null) {
+      WriteBuffer buffer = writeBuffer(index);
+      if (buffer != null) try {
+        buffer.flush(out);
+      } catch (IOException ioe) {
+        System.out.println(ioe);
+      }
+      writeBuffers.setElementAt(size > 0 ? new WriteBuffer(size, autoFlush) : null, index);
+    } else throw new Error("Illegal output channel index " + index);
+  }
+
   public void blockOnAccept(String name) {
 
     // The current thread is about to yield. It changes state to
@@ -350,6 +390,13 @@ public final class OperatingSystem implements EventHandler {
     else throw new Error("Unknown client " + name);
   }
 
+  public synchronized boolean cancelWake(Thread thread) {
+
+    // The thread has been woken before its timer expired...
+
+    return timers.cancel(thread);
+  }
+
   public int charCount(int index) {
     TChannel in = tokenInputChannel(index);
     return in.charCount();
@@ -435,8 +482,10 @@ public final class OperatingSystem implements EventHandler {
     }
     for (int i = 0; i < outputChannels.size(); i++) {
       OutputStream out = (OutputStream) outputChannels.elementAt(i);
+      WriteBuffer buffer = writeBuffer(i);
       try {
         debug("Close " + out);
+        if (buffer != null) buffer.drain(out);
         out.close();
       } catch (IOException e) {
         e.printStackTrace(System.err);
@@ -457,10 +506,13 @@ public final class OperatingSystem implements EventHandler {
     else throw new Error("Illegal input channel index: " + index);
   }
 
-  public void closeOutputChannel(int index) {
+  public synchronized void closeOutputChannel(int index) {
     OutputStream out = outputChannel(index);
+    WriteBuffer buffer = writeBuffer(index);
     if (out != null)
       try {
+        if (buffer != null) buffer.drain(out);
+        writeBuffers.setElementAt(null, index);
         out.close();
       } catch (IOException ioe) {
         System.out.println(ioe);
@@ -542,11 +594,30 @@ public final class OperatingSystem implements EventHandler {
     return in.eof();
   }
 
-  public void flush(int index) {
+  public synchronized void expireTimers() {
+
+    // Wake and schedule the threads whose timers have expired. A thread
+    // that is no longer sleeping (for example because it has been killed)
+    // is left alone...
+
+    for (TimerWheel.Timer timer : timers.advance(millis())) {
+      Thread thread = timer.thread();
+      debug("Timer expired for " + thread);
+      if (thread.isSleeping()) {
+        thread.wake(timer.value());
+        schedule(thread);
+      }
+    }
+  }
+
+  public synchronized void flush(int index) {
     debug("flush(" + index + ")");
     OutputStream out = outputChannel(index);
+    WriteBuffer buffer = writeBuffer(index);
     try {
-      out.flush();
+      if (buffer != null)
+        buffer.flush(out);
+      else out.flush();
     } catch (IOException e) {
       System.out.println(e);
     }
@@ -851,6 +922,14 @@ public final class OperatingSystem implements EventHandler {
     else return null;
   }
 
+  private static long millis() {
+
+    // The time in milliseconds used by the timer wheel. It is not affected
+    // by changes to the system clock...
+
+    return System.nanoTime() / 1000000;
+  }
+
   public int newDataInputChannel(int index) {
 
     // Creates and returns a new input channel that decodes
@@ -889,6 +968,15 @@ public final class OperatingSystem implements EventHandler {
       InputStream in = socket.getInputStream();
       OutputStream out = new BufferedOutputStream(socket.getOutputStream());
       String name = readExternalClientName(in);
+      SocketChannel socketChannel = socket.getChannel();
+      if (socketChannel != null) {
+
+        // The name is read in blocking mode. After that the socket is used
+        // without blocking so that the channel monitor can select it...
+
+        in = new ChannelInputStream(socketChannel);
+        out = new BufferedOutputStream(new ChannelOutputStream(socketChannel));
+      }
       if (client(name) != null) {
         StreamClient client = asyncClient(name);
         client.write(ExternalClient.NAME_FAIL);
@@ -1039,6 +1127,7 @@ public final class OperatingSystem implements EventHandler {
 
     int outputChannel = outputChannels.size();
     outputChannels.addElement(out);
+    writeBuffers.addElement(null);
     return outputChannel;
   }
 
@@ -1350,6 +1439,18 @@ public final class OperatingSystem implements EventHandler {
     return in.read();
   }
 
+  public int read(int index, byte[] bytes, int offset, int length) {
+
+    // Read up to length bytes from the input channel into the array and
+    // return the number of bytes read or -1 at the end of the input. This
+    // will block if no input is currently available but will not block
+    // once some input has been read.
+
+    debug("Read(" + index + "," + length + ")");
+    XChannel in = (XChannel) inputChannel(index);
+    return in.read(bytes, offset, length);
+  }
+
   public Message readMessage(String name) {
 
     // A message is available at this point. Get the message client
@@ -1502,6 +1603,12 @@ public final class OperatingSystem implements EventHandler {
         printDebugState();
         waitForMonitor();
         if (!scheduledThreads.isEmpty()) runReadyThread();
+
+        // A preempted thread gives the monitors that are waiting to
+        // schedule threads a chance to take the XOS lock before the
+        // next thread is chosen...
+
+        if (XVM.preempted()) java.lang.Thread.yield();
       }
       debug("XVM has terminated normally.");
     } catch (Throwable t) {
@@ -1591,6 +1698,11 @@ public final class OperatingSystem implements EventHandler {
     // schedule the thread i=when some input is detected.
 
     debug("StartInputMonitor(" + in + "," + thread + ")");
+    SelectableChannel channel = in instanceof XChannel ? ((XChannel) in).selectableChannel() : null;
+    if (channel != null) {
+      channelMonitor().monitor(channel, thread);
+      return;
+    }
     StreamMonitor monitor = null;
     for (int i = 0; i < inputMonitors.size() && monitor == null; i++) {
       StreamMonitor m = (StreamMonitor) inputMonitors.elementAt(i);
@@ -1605,6 +1717,19 @@ public final class OperatingSystem implements EventHandler {
     }
   }
 
+  private synchronized ChannelMonitor channelMonitor() {
+    if (channelMonitor == null) {
+      try {
+        channelMonitor = new ChannelMonitor(this);
+      } catch (IOException ioe) {
+        System.out.println(ioe);
+        System.exit(0);
+      }
+      channelMonitor.start();
+    }
+    return channelMonitor;
+  }
+
   public void startMessageMonitor(MessageClient client, Thread thread) {
 
     // A read on the client has blocked. Start a message monitor that
@@ -1767,29 +1892,52 @@ public final class OperatingSystem implements EventHandler {
   }
 
   public synchronized void waitForMonitor() {
+
+    // Wait until a thread is scheduled. When threads are sleeping on
+    // timers the wait ends at the next tick of the timer wheel...
+
+    expireTimers();
     if (scheduledThreads.isEmpty()) {
       notifyAll();
       try {
+        long tick = timers.nextTick();
         debug("XOS waiting for monitor notification.");
-        wait();
+        if (tick == -1)
+          wait();
+        else wait(Math.max(1, tick - millis()));
         debug("XOS has been woken up.");
         notifyAll();
       } catch (InterruptedException e) {
         System.out.println(e);
       }
+      expireTimers();
     }
   }
 
+  public synchronized void wakeAfter(Thread thread, int millis, int value) {
+
+    // The thread is sleeping and is woken with the value after the
+    // given number of milliseconds unless it is woken before then...
+
+    expireTimers();
+    timers.add(thread, value, millis() + Math.max(millis, 1));
+  }
+
   public synchronized void write(int index, int c) {
 
     // Write the supplied byte to the supplied output channel.
 
     OutputStream out = outputChannel(index);
+    WriteBuffer buffer = writeBuffer(index);
     if (out != null)
       try {
         // debug("XOS.write('" + (char) c + "') on " + out);
-        out.write(c);
-        if (c == '\n') out.flush();
+        if (buffer != null)
+          buffer.write(out, c);
+        else {
+          out.write(c);
+          if (c == '\n') out.flush();
+        }
         // debug("XOS.written('" + (char) c + "')");
       } catch (IOException ioe) {
         System.out.println(ioe);
@@ -1797,6 +1945,30 @@ public final class OperatingSystem implements EventHandler {
     else throw new Error("Illegal output channel index " + index);
   }
 
+  public synchronized void write(int index, byte[] bytes, int offset, int length) {
+
+    // Write a block of bytes to the supplied output channel. Used by the
+    // machine to write strings and buffers without writing each byte
+    // separately. A channel without a write buffer is flushed when the
+    // block contains a newline in the same way as writing the bytes
+    // one at a time...
+
+    OutputStream out = outputChannel(index);
+    WriteBuffer buffer = writeBuffer(index);
+    if (out != null)
+      try {
+        if (buffer != null)
+          buffer.write(out, bytes, offset, length);
+        else {
+          out.write(bytes, offset, length);
+          if (WriteBuffer.containsNewline(bytes, offset, length)) out.flush();
+        }
+      } catch (IOException ioe) {
+        System.out.println(ioe);
+      }
+    else throw new Error("Illegal output channel index " + index);
+  }
+
   public void writeBool(int index, boolean b) {
 
     // Write the boolean to the supplied data output stream.
@@ -1812,6 +1984,12 @@ public final class OperatingSystem implements EventHandler {
     else throw new Error("Illegal data output channel index " + index);
   }
 
+  private WriteBuffer writeBuffer(int index) {
+    if (index >= 0 && index < writeBuffers.size())
+      return writeBuffers.elementAt(index);
+    else return null;
+  }
+
   public void writeByte(int index, int b) {
 
     // Write the byte to the supplied data output stream.
@@ -1,23 +1,79 @@
 package xos;
 
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 import threads.Thread;
 
 
-public class ThreadQueue extends LinkedList<Thread> {
+public class ThreadQueue {
     
-    // Used to implement scheduled threads in XOS.
+    // Used to implement scheduled threads in XOS. There is a queue for each
+    // thread priority and a bit for each queue that is not empty so that
+    // the next thread is found from the highest bit without looking at the
+    // empty queues. Threads of the same level are run in the order that
+    // they were scheduled. Each call of next is a round. A thread that has
+    // waited AGE rounds is run before the threads of higher levels so that
+    // threads on low levels are not starved by threads that keep yielding
+    // and being scheduled again. The oldest thread of each level is at the
+    // head of its queue so only the heads need to be looked at.
     
-    private static final long serialVersionUID = 1L;
+    private static final int     AGE    = 16;
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private ArrayDeque<Thread>[] levels = new ArrayDeque[Thread.MAX_PRIORITY + 1];
+    
+    private int                  ready  = 0;
+    
+    private int                  size   = 0;
+    
+    private long                 round  = 0;
+    
+    public ThreadQueue() {
+        for (int i = 0; i < levels.length; i++)
+            levels[i] = new ArrayDeque<Thread>();
+    }
 
     public void insert(Thread thread) {
-        addLast(thread);
+        int level = thread.level();
+        thread.setScheduled(round);
+        levels[level].addLast(thread);
+        ready |= 1 << level;
+        size++;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
     }
     
     public Thread next() {
-        return (Thread)removeFirst();
+        int level = 31 - Integer.numberOfLeadingZeros(ready);
+        long oldest = round - AGE;
+        for (int bits = ready & ~(1 << level); bits != 0; bits &= bits - 1) {
+            int lower = Integer.numberOfTrailingZeros(bits);
+            if (levels[lower].peekFirst().scheduled() <= oldest) {
+                oldest = levels[lower].peekFirst().scheduled();
+                level = lower;
+            }
+        }
+        Thread thread = levels[level].removeFirst();
+        if (levels[level].isEmpty())
+            ready &= ~(1 << level);
+        size--;
+        round++;
+        return thread;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public String toString() {
+        String s = "";
+        for (int level = levels.length - 1; level >= 0; level--)
+            if (!levels[level].isEmpty())
+                s = s + (s.equals("") ? "" : ",") + level + ":" + levels[level];
+        return "[" + s + "]";
     }
 
 }
@@ -0,0 +1,214 @@
+package xos;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import threads.Thread;
+
+public class TimerWheel {
+
+  // XVM threads that are delayed are given a timer in a hierarchical timing
+  // wheel. The wheel has LEVELS levels of SLOTS slots and each slot holds a
+  // list of timers. A slot of level 0 is one tick (a millisecond) and a slot
+  // of each level after that covers all of the slots of the level below. A
+  // timer is added to the lowest level that reaches its deadline. When the
+  // ticks of a slot at one level have all been passed the timers of the next
+  // slot of the level above are added again and so move down to the levels
+  // below. Adding, cancelling and expiring a timer therefore take constant
+  // time however many timers there are. Each level has a bit for each slot
+  // that is not empty so that XOS can find the next tick at which a timer
+  // may expire and wait until then.
+
+  private static final int BITS   = 6;
+
+  private static final int SLOTS  = 1 << BITS;
+
+  private static final int MASK   = SLOTS - 1;
+
+  private static final int LEVELS = 4;
+
+  // The furthest deadline that the wheel can hold (about 4.6 hours). Timers
+  // with later deadlines are held at the top level and are added again until
+  // the deadline can be reached...
+
+  private static final long SPAN  = 1L << (BITS * LEVELS);
+
+  public static class Timer {
+
+    private Thread thread;
+
+    private int    value;                                 // Pushed on the thread's stack when it wakes.
+
+    private long   deadline;
+
+    private int    level;
+
+    private int    slot;
+
+    private Timer  next;
+
+    private Timer  prev;
+
+    public Timer(Thread thread, int value, long deadline) {
+      this.thread = thread;
+      this.value = value;
+      this.deadline = deadline;
+    }
+
+    public Thread thread() {
+      return thread;
+    }
+
+    public int value() {
+      return value;
+    }
+
+    public String toString() {
+      return "Timer(" + thread + "," + deadline + ")";
+    }
+  }
+
+  private Timer[][]                slots  = new Timer[LEVELS][SLOTS];
+
+  private long[]                   occupied = new long[LEVELS];
+
+  private Hashtable<Thread, Timer> timers = new Hashtable<Thread, Timer>();
+
+  private long                     now;                   // The last tick that has been passed.
+
+  public TimerWheel(long now) {
+    this.now = now;
+  }
+
+  public synchronized void add(Thread thread, int value, long deadline) {
+
+    // Add a timer that expires at the deadline. A thread has at most one
+    // timer so any existing timer for the thread is replaced...
+
+    cancel(thread);
+    Timer timer = new Timer(thread, value, Math.max(deadline, now + 1));
+    timers.put(thread, timer);
+    insert(timer);
+  }
+
+  public synchronized Vector<Timer> advance(long time) {
+
+    // Pass the ticks up to and including time and return the timers that
+    // have expired in the order of their deadlines...
+
+    Vector<Timer> expired = new Vector<Timer>();
+    while (now < time) {
+      if (timers.isEmpty())
+        now = time;
+      else if (occupied[0] == 0 && ((now + 1) & MASK) != 0)
+
+        // Nothing can expire before the next slot of level 1 is due...
+
+        now = Math.min(time, now | MASK);
+      else {
+        now++;
+        for (int level = levels(now); level > 0; level--)
+          cascade(level, slot(now, level));
+        int slot = slot(now, 0);
+        while (slots[0][slot] != null) {
+          Timer timer = slots[0][slot];
+          unlink(timer);
+          timers.remove(timer.thread);
+          expired.addElement(timer);
+        }
+      }
+    }
+    return expired;
+  }
+
+  public synchronized boolean cancel(Thread thread) {
+
+    // Remove the timer for the thread (if any) and return true when there
+    // was a timer...
+
+    Timer timer = timers.remove(thread);
+    if (timer != null) unlink(timer);
+    return timer != null;
+  }
+
+  public synchronized boolean isEmpty() {
+    return timers.isEmpty();
+  }
+
+  public synchronized long nextTick() {
+
+    // Return the next tick at which a timer may expire or at which timers
+    // move down from a higher level. Returns -1 when there are no timers...
+
+    if (timers.isEmpty()) return -1;
+    long next = Long.MAX_VALUE;
+    for (int level = 0; level < LEVELS; level++)
+      if (occupied[level] != 0) {
+        long block = (now >> (BITS * level)) + 1;
+        long bits = Long.rotateRight(occupied[level], (int) (block & MASK));
+        next = Math.min(next, (block + Long.numberOfTrailingZeros(bits)) << (BITS * level));
+      }
+    return next;
+  }
+
+  public synchronized int size() {
+    return timers.size();
+  }
+
+  private void cascade(int level, int slot) {
+
+    // The timers of the slot are due within the span of the level below
+    // and are added again...
+
+    while (slots[level][slot] != null) {
+      Timer timer = slots[level][slot];
+      unlink(timer);
+      insert(timer);
+    }
+  }
+
+  private void insert(Timer timer) {
+    long deadline = Math.min(timer.deadline, now + SPAN - 1);
+    long delta = deadline - now;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1)))
+      level++;
+    int slot = slot(deadline, level);
+    timer.level = level;
+    timer.slot = slot;
+    timer.prev = null;
+    timer.next = slots[level][slot];
+    if (timer.next != null) timer.next.prev = timer;
+    slots[level][slot] = timer;
+    occupied[level] |= 1L << slot;
+  }
+
+  private static int levels(long tick) {
+
+    // The number of levels whose current slot has been passed at tick...
+
+    int level = 0;
+    while (level < LEVELS - 1 && (tick & ((1L << (BITS * (level + 1))) - 1)) == 0)
+      level++;
+    return level;
+  }
+
+  private static int slot(long tick, int level) {
+    return (int) ((tick >> (BITS * level)) & MASK);
+  }
+
+  private void unlink(Timer timer) {
+    if (timer.prev != null)
+      timer.prev.next = timer.next;
+    else slots[timer.level][timer.slot] = timer.next;
+    if (timer.next != null) timer.next.prev = timer.prev;
+    if (slots[timer.level][timer.slot] == null) occupied[timer.level] &= ~(1L << timer.slot);
+    timer.next = null;
+    timer.prev = null;
+  }
+
+  public String toString() {
+    return "TimerWheel(" + now + "," + timers.values() + ")";
+  }
+
+}
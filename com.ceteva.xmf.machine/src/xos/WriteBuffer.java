@@ -0,0 +1,73 @@
+package xos;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class WriteBuffer {
+
+  // A write buffer collects the bytes written to an output channel so that
+  // the underlying stream is written in blocks (see bufferOutputChannel in
+  // OperatingSystem). The bytes are written when the buffer is full and when
+  // the channel is flushed or closed. A buffer that auto-flushes is also
+  // flushed at the end of each line so that prompts and trace output are
+  // seen as they are produced. Bytes written through another channel that
+  // wraps the same stream (data, gzip and zip channels) bypass the buffer.
+
+  private byte[]  bytes;
+
+  private int     count;
+
+  private boolean autoFlush;
+
+  public WriteBuffer(int size, boolean autoFlush) {
+    this.bytes = new byte[Math.max(size, 1)];
+    this.autoFlush = autoFlush;
+  }
+
+  public static boolean containsNewline(byte[] bytes, int offset, int length) {
+    for (int i = offset; i < offset + length; i++)
+      if (bytes[i] == '\n') return true;
+    return false;
+  }
+
+  public void drain(OutputStream out) throws IOException {
+
+    // Write the buffered bytes without flushing the stream...
+
+    if (count > 0) {
+      out.write(bytes, 0, count);
+      count = 0;
+    }
+  }
+
+  public void flush(OutputStream out) throws IOException {
+    drain(out);
+    out.flush();
+  }
+
+  public void write(OutputStream out, int b) throws IOException {
+    if (count == bytes.length) drain(out);
+    bytes[count++] = (byte) b;
+    if (autoFlush && b == '\n') flush(out);
+  }
+
+  public void write(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+
+    // Blocks that do not fit are written after the buffered bytes and
+    // blocks that are at least as large as the buffer are not copied...
+
+    if (length > this.bytes.length - count) drain(out);
+    if (length >= this.bytes.length)
+      out.write(bytes, offset, length);
+    else {
+      System.arraycopy(bytes, offset, this.bytes, count, length);
+      count = count + length;
+    }
+    if (autoFlush && containsNewline(bytes, offset, length)) flush(out);
+  }
+
+  public String toString() {
+    return "WriteBuffer(" + count + "/" + bytes.length + (autoFlush ? ",autoFlush)" : ")");
+  }
+
+}
@@ -2,16 +2,32 @@ package xos;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SelectableChannel;
 
 public class XChannel extends XInputStream {
 
     // All XOS byte input streams are instances of this class.
     // This allows us to override any appropriate methods
-    // from the Java input streams. An XChannel provides a
-    // single byte buffer that is used to allow single byte
-    // lookahead.
+    // from the Java input streams. An XChannel reads the
+    // underlying stream a block at a time into a buffer
+    // that also provides the lookahead for peek. Only the
+    // bytes that the stream says are available are read
+    // so that filling the buffer blocks no longer than a
+    // single byte read.
 
-    private int             buffer      = -1;
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private byte[]          buffer      = new byte[BUFFER_SIZE];
+
+    private int             position    = 0;
+
+    private int             limit       = 0;
+
+    // The number of bytes in the buffer (limit - position). It is published
+    // separately so that available() can be called without the lock that is
+    // held by a read blocking in fill().
+
+    private volatile int    buffered    = 0;
 
     private boolean         alwaysReady = false;
 
@@ -37,25 +53,9 @@ public class XChannel extends XInputStream {
         try {
             available = in.available();
         } catch (IOException e) {
-            return 0;
+            available = 0;
         }
-        if (buffer == -1)
-            return available;
-        else
-            return available + 1;
-    }
-
-    public int buffer() {
-        return buffer;
-    }
-
-    public int buffer(int c) {
-        buffer = c;
-        return c;
-    }
-
-    public boolean bufferEmpty() {
-        return buffer == -1;
+        return available + buffered;
     }
 
     public void close() {
@@ -70,42 +70,72 @@ public class XChannel extends XInputStream {
         return peek() == -1;
     }
 
+    private int fill() {
+
+        // Refill the empty buffer and return the number of bytes read or
+        // -1 at the end of the stream. Blocks until a byte is available.
+
+        position = 0;
+        limit = 0;
+        while (true) {
+            try {
+                int count = in.read(buffer, 0, Math.max(1, Math.min(buffer.length, available())));
+                if (count != 0) {
+                    limit = Math.max(count, 0);
+                    buffered = limit;
+                    return count;
+                }
+            } catch (java.net.SocketException se) {
+                return -1;
+            } catch (IOException e) {
+                System.out.println(e);
+                System.exit(0);
+            }
+        }
+    }
+
     public synchronized int peek() {
 
         // Peek at the next input character and return it. Blocks until a character is
-        // available. Uses a single element buffer to implement the lookahead.
+        // available. The character stays in the buffer.
 
-        if (buffer == -1) {
-            buffer = read();
-            return buffer;
-        } else
-            return buffer;
+        if (position == limit && fill() == -1)
+            return -1;
+        else
+            return buffer[position] & 0xFF;
     }
 
     public synchronized int read() {
 
-        // Reads a single byte from the input stream, blocking if necessary.
-        // Sets the value of eof if the end of stream is encountered so that
-        // XOS can service requests for EOF without retrying the stream.
-
-        if (buffer == -1) {
-            while (true) {
-                try {
-                    return in.read();
-                } catch (java.net.SocketException se) {
-                    return -1;
-                } catch (IOException e) {
-                    System.out.println(e);
-                    System.exit(0);
-                }
-            }
-        } else {
-            int c = buffer;
-            buffer = -1;
-            return c;
+        // Reads a single byte from the buffer, refilling the buffer from the input
+        // stream if necessary. Blocks until a byte is available and returns -1 at
+        // the end of the stream.
+
+        if (position == limit && fill() == -1)
+            return -1;
+        else {
+            buffered = limit - position - 1;
+            return buffer[position++] & 0xFF;
         }
     }
 
+    public synchronized int read(byte[] bytes, int offset, int length) {
+
+        // Reads up to length bytes in one go. Blocks until at least one byte is
+        // available and returns the number of bytes read or -1 at the end of
+        // the stream. Does not block once a byte has been read.
+
+        if (length == 0)
+            return 0;
+        if (position == limit && fill() == -1)
+            return -1;
+        length = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, bytes, offset, length);
+        position = position + length;
+        buffered = limit - position;
+        return length;
+    }
+
     public boolean ready() {
 
         // Returns true when a read will not block.
@@ -116,11 +146,24 @@ public class XChannel extends XInputStream {
             return available() > 0;
     }
 
+    public SelectableChannel selectableChannel() {
+
+        // Returns the channel that the stream reads from if it can be
+        // monitored by a selector and null otherwise.
+
+        if (in instanceof ChannelInputStream)
+            return ((ChannelInputStream) in).channel();
+        else
+            return null;
+    }
+
     public void resetToInitialState() {
 
         // Called when we want to loase all saved state in the input channel.
 
-        buffer = -1;
+        position = 0;
+        limit = 0;
+        buffered = 0;
     }
 
     public String toString() {